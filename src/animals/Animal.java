@@ -1,5 +1,7 @@
 package animals;
 
+import areas.AnimalHabitat;
+
 /**
  * The superclass for each animal. Buzzard, Gazelle, Lion, Parrot, Seal, Shark,
  * Starfish, and Zebra subclasses all extend Animals.
@@ -10,6 +12,11 @@ public abstract class Animal {
 	 */
 	private String nickname;
 
+	/**
+	 * The species ordinal of this animal. See Species.
+	 */
+	private final int species;
+
 	/**
 	 * The animal constructor. All animals are given a nickname upon initialization.
 	 * 
@@ -17,6 +24,7 @@ public abstract class Animal {
 	 */
 	public Animal(String n) {
 		nickname = n;
+		species = Species.ordinalOf(getClass());
 	}
 
 	/**
@@ -26,17 +34,35 @@ public abstract class Animal {
 		return nickname;
 	}
 
+	/**
+	 * @return Returns this animal's species ordinal.
+	 */
+	public int getSpecies() {
+		return species;
+	}
+
 	/**
 	 * Check whether two animals can live together. Animals are only compatible with
-	 * animals applicable to their area.
+	 * animals applicable to their area. Each subclass registers which species it
+	 * is compatible with in Species.
 	 * 
 	 * @param animal The animal for which to check compatibility with this animal.
 	 * @return Returns true for compatible animals and false otherwise.
 	 */
-	public abstract boolean isCompatibleWith(Animal animal);
+	public boolean isCompatibleWith(Animal animal) {
+		return Species.isCompatible(species, animal.species);
+	}
+
+	/**
+	 * @return Returns the kind of habitat where an animal can be contained. Any
+	 *         subclass of it can contain the animal too.
+	 */
+	public abstract Class<? extends AnimalHabitat> habitat();
 
 	/**
-	 * @return Returns the area where an animal can be contained.
+	 * @return Returns the class name of the area where an animal can be contained.
 	 */
-	public abstract String contained();
+	public String contained() {
+		return habitat().getName();
+	}
 }
@@ -1,20 +1,20 @@
 package animals;
 
+import areas.AnimalHabitat;
+import areas.Cage;
+
 public class Buzzard extends Animal {
 
-    public Buzzard(String n) {
-        super(n);
+    static {
+        // Buzzards are incompatible with parrots.
+        Species.allow(Buzzard.class, Buzzard.class);
     }
 
-    public boolean isCompatibleWith(Animal animal) {
-        // Buzzards are incompatible with parrots.
-        if (animal instanceof Buzzard) {
-            return true;
-        }
-        return false;
+    public Buzzard(String n) {
+        super(n);
     }
 
-    public String contained() {
-        return "areas.Cage";
+    public Class<? extends AnimalHabitat> habitat() {
+        return Cage.class;
     }
 }
@@ -1,20 +1,21 @@
 package animals;
 
+import areas.AnimalHabitat;
+import areas.Enclosure;
+
 public class Gazelle extends Animal {
     
-    public Gazelle(String n) {
-        super(n);
+    static {
+        // Gazelles are compatible with zebras but not lions.
+        Species.allow(Gazelle.class, Gazelle.class);
+        Species.allow(Gazelle.class, Zebra.class);
     }
 
-    public boolean isCompatibleWith(Animal animal) {
-        // Gazelles are compatible with zebras but not lions.
-        if (animal instanceof Gazelle || animal instanceof Zebra) {
-            return true;
-        }
-        return false;
+    public Gazelle(String n) {
+        super(n);
     }
 
-    public String contained() {
-        return "areas.Enclosure";
+    public Class<? extends AnimalHabitat> habitat() {
+        return Enclosure.class;
     }
 }
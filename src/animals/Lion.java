@@ -1,20 +1,20 @@
 package animals;
 
+import areas.AnimalHabitat;
+import areas.Enclosure;
+
 public class Lion extends Animal {
     
-    public Lion(String n) {
-        super(n);
+    static {
+        // Lions are incompatible with zebras and gazelles.
+        Species.allow(Lion.class, Lion.class);
     }
 
-    public boolean isCompatibleWith(Animal animal) {
-        // Lions are incompatible with zebras and gazelles.
-        if (animal instanceof Lion) {
-            return true;
-        }
-        return false;
+    public Lion(String n) {
+        super(n);
     }
 
-    public String contained() {
-        return "areas.Enclosure";
+    public Class<? extends AnimalHabitat> habitat() {
+        return Enclosure.class;
     }
 }
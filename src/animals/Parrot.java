@@ -1,20 +1,20 @@
 package animals;
 
+import areas.AnimalHabitat;
+import areas.Cage;
+
 public class Parrot extends Animal {
     
-    public Parrot(String n) {
-        super(n);
+    static {
+        // Parrots are incompatible with buzzards.
+        Species.allow(Parrot.class, Parrot.class);
     }
 
-    public boolean isCompatibleWith(Animal animal) {
-        // Parrots are incompatible with buzzards.
-        if (animal instanceof Parrot) {
-            return true;
-        }
-        return false;
+    public Parrot(String n) {
+        super(n);
     }
 
-    public String contained() {
-        return "areas.Cage";
+    public Class<? extends AnimalHabitat> habitat() {
+        return Cage.class;
     }
 }
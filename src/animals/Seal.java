@@ -1,21 +1,22 @@
 package animals;
 
+import areas.AnimalHabitat;
+import areas.Aquarium;
+
 public class Seal extends Animal {
 
-    public Seal(String n) {
-        super(n);
+    static {
+        // Seals live with starfish but not sharks.
+        Species.allow(Seal.class, Starfish.class);
+        Species.allow(Seal.class, Seal.class);
     }
 
-    public boolean isCompatibleWith(Animal animal) {
-        // Seals live with starfish but not sharks.
-        if (animal instanceof Starfish || animal instanceof Seal) {
-            return true;
-        }
-        return false;
+    public Seal(String n) {
+        super(n);
     }
 
-    public String contained() {
-        return "areas.Aquarium";
+    public Class<? extends AnimalHabitat> habitat() {
+        return Aquarium.class;
     }
     
 
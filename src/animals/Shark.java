@@ -1,21 +1,22 @@
 package animals;
 
+import areas.AnimalHabitat;
+import areas.Aquarium;
+
 public class Shark extends Animal {
 
-    public Shark(String n) {
-        super(n);
+    static {
+        // Sharks live with starfish but not seals.
+        Species.allow(Shark.class, Starfish.class);
+        Species.allow(Shark.class, Shark.class);
     }
 
-    public boolean isCompatibleWith(Animal animal) {
-        // Sharks live with starfish but not seals.
-        if (animal instanceof Starfish || animal instanceof Shark) {
-            return true;
-        }
-        return false;
+    public Shark(String n) {
+        super(n);
     }
 
-    public String contained() {
-        return "areas.Aquarium";
+    public Class<? extends AnimalHabitat> habitat() {
+        return Aquarium.class;
     }
     
 }
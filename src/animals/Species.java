@@ -0,0 +1,110 @@
+package animals;
+
+import java.util.HashMap;
+
+/**
+ * Gives every kind of animal a small ordinal and stores which kinds can live
+ * together as a bit matrix, so checking two animals is a single bit lookup
+ * instead of a chain of instanceof checks. Each Animal subclass registers its own
+ * rules in a static block, so a new species can be added without editing the
+ * others.
+ */
+public final class Species {
+
+    /**
+     * The most species that can be registered, one per bit of a long.
+     */
+    public static final int MAX_SPECIES = 64;
+
+    /**
+     * The ordinal of each registered Animal class.
+     */
+    private static final HashMap<Class<?>, Integer> ordinals = new HashMap<Class<?>, Integer>();
+
+    /**
+     * Bit b of compatible[a] is set if species a can live with species b.
+     */
+    private static final long[] compatible = new long[MAX_SPECIES];
+
+    private Species() {
+    }
+
+    /**
+     * Gets the ordinal of an Animal class. A class that has not been registered
+     * gets the ordinal of its closest registered superclass, so a subclass of
+     * Lion is treated as a Lion. If there is none it is registered as a new
+     * species that can not live with anything.
+     *
+     * @param animalClass the class of the animal.
+     * @return the species ordinal.
+     * @throws IllegalStateException more than MAX_SPECIES species are registered.
+     */
+    public static synchronized int ordinalOf(Class<? extends Animal> animalClass) {
+        for (Class<?> c = animalClass; c != null && c != Animal.class; c = c.getSuperclass()) {
+            Integer ordinal = ordinals.get(c);
+            if (ordinal != null) {
+                return ordinal;
+            }
+        }
+        return register(animalClass);
+    }
+
+    /**
+     * Lets one species live with another. Only works one way, the same as
+     * isCompatibleWith, so both species should normally allow each other.
+     *
+     * @param animalClass the species being given the rule.
+     * @param otherClass  the species it can live with.
+     */
+    public static synchronized void allow(Class<? extends Animal> animalClass,
+            Class<? extends Animal> otherClass) {
+        int a = registeredOrdinal(animalClass);
+        int b = registeredOrdinal(otherClass);
+        compatible[a] |= 1L << b;
+    }
+
+    /**
+     * @param species      the species ordinal of one animal.
+     * @param otherSpecies the species ordinal of the other animal.
+     * @return true if the first species can live with the second.
+     */
+    public static boolean isCompatible(int species, int otherSpecies) {
+        return (compatible[species] & (1L << otherSpecies)) != 0;
+    }
+
+    /**
+     * @param species the species ordinal.
+     * @return a mask with bit b set for every species b this species can live
+     *         with.
+     */
+    public static long compatibleMask(int species) {
+        return compatible[species];
+    }
+
+    /**
+     * Gets the ordinal of exactly this class, registering it if needed.
+     *
+     * @param animalClass the class of the animal.
+     * @return the species ordinal.
+     */
+    private static int registeredOrdinal(Class<? extends Animal> animalClass) {
+        Integer ordinal = ordinals.get(animalClass);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        return register(animalClass);
+    }
+
+    /**
+     * @param animalClass a class that has no ordinal yet.
+     * @return the new ordinal.
+     */
+    private static int register(Class<? extends Animal> animalClass) {
+        if (ordinals.size() == MAX_SPECIES) {
+            throw new IllegalStateException("No more than " + MAX_SPECIES + " species can be registered.");
+        }
+        int ordinal = ordinals.size();
+        ordinals.put(animalClass, ordinal);
+        return ordinal;
+    }
+}
@@ -1,21 +1,23 @@
 package animals;
 
+import areas.AnimalHabitat;
+import areas.Aquarium;
+
 public class Starfish extends Animal {
 
-    public Starfish(String n) {
-        super(n);
+    static {
+        // Starfish live with both seals and sharks.
+        Species.allow(Starfish.class, Shark.class);
+        Species.allow(Starfish.class, Seal.class);
+        Species.allow(Starfish.class, Starfish.class);
     }
 
-    public boolean isCompatibleWith(Animal animal) {
-        // Starfish live with both seals and sharks.
-        if (animal instanceof Shark || animal instanceof Seal || animal instanceof Starfish) { 
-            return true;
-        }
-        return false;
+    public Starfish(String n) {
+        super(n);
     }
 
-    public String contained() {
-        return "areas.Aquarium";
+    public Class<? extends AnimalHabitat> habitat() {
+        return Aquarium.class;
     }
     
 }
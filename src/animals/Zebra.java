@@ -1,20 +1,21 @@
 package animals;
 
+import areas.AnimalHabitat;
+import areas.Enclosure;
+
 public class Zebra extends Animal {
     
-    public Zebra(String n) {
-        super(n);
+    static {
+        // Zebraas are compatible with gazelles but not lions.
+        Species.allow(Zebra.class, Gazelle.class);
+        Species.allow(Zebra.class, Zebra.class);
     }
 
-    public boolean isCompatibleWith(Animal animal) {
-        // Zebraas are compatible with gazelles but not lions.
-        if (animal instanceof Gazelle || animal instanceof Zebra) {
-            return true;
-        }
-        return false;
+    public Zebra(String n) {
+        super(n);
     }
 
-    public String contained() {
-        return "areas.Enclosure";
+    public Class<? extends AnimalHabitat> habitat() {
+        return Enclosure.class;
     }
 }
@@ -1,8 +1,19 @@
 package areas;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import animals.Animal;
+import animals.Species;
 
 /**
  * Area subclass with auxiliary functions and animal storage for animal habitats
@@ -15,9 +26,10 @@ public abstract class AnimalHabitat extends Area {
     private int capacity;
 
     /**
-     * The ArrayList of animals that live in this animal habitat.
+     * The animals that live in this animal habitat. Volatile so that a list
+     * swapped in with setAnimals is seen by readers on other threads.
      */
-    private ArrayList<Animal> animals = new ArrayList<Animal>();
+    private volatile Residents animals = new Residents();
 
     /**
      * The animal habitat constructor. A capacity must be assigned upon
@@ -34,14 +46,91 @@ public abstract class AnimalHabitat extends Area {
     }
 
     /**
-     * @param as the ArrayList to set the animals as in the animal habitat.
+     * @param as the ArrayList to set the animals as in the animal habitat. The
+     *           animals are copied, so changing as afterwards does not change the
+     *           habitat.
      */
     public void setAnimals(ArrayList<Animal> as) {
-        animals = as;
+        animals = new Residents(as);
     }
 
     /**
-     * @return the animals in the animal habitat.
+     * Adds an animal and updates the species summary without recounting.
+     * 
+     * @param animal the animal to be added.
+     */
+    public void addAnimal(Animal animal) {
+        animals.add(animal);
+    }
+
+    /**
+     * Adds an animal without changing the list other threads may be reading: a
+     * copy of the list with the animal on the end is swapped in. The list and the
+     * species summary are copied once and only the new animal is counted. Callers
+     * on several threads must share a lock around the call.
+     * 
+     * @param animal the animal to be added.
+     */
+    public void addAnimalCopyOnWrite(Animal animal) {
+        Residents copy = new Residents(animals, 1);
+        copy.add(animal);
+        animals = copy;
+    }
+
+    /**
+     * The batch version of addAnimalCopyOnWrite. The list is copied once for the
+     * whole batch, so restocking a habitat does not copy it once per animal.
+     * 
+     * @param added the animals to be added, in order.
+     */
+    public void addAnimalsCopyOnWrite(List<Animal> added) {
+        Residents copy = new Residents(animals, added.size());
+        for (int i = 0; i < added.size(); i++) {
+            copy.add(added.get(i));
+        }
+        animals = copy;
+    }
+
+    /**
+     * Removes an animal and updates the species summary without recounting.
+     * 
+     * @param animal the animal to be removed.
+     * @return true if the animal lived here.
+     */
+    public boolean removeAnimal(Animal animal) {
+        return animals.remove(animal);
+    }
+
+    /**
+     * Checks a new animal against every resident at once, using the species
+     * summary. Gives the same answer as calling isCompatibleWith on each one.
+     * 
+     * @param animal the animal that might be added.
+     * @return true if the animal is compatible with every animal living here.
+     */
+    public boolean isCompatibleWithAnimals(Animal animal) {
+        return (getSpeciesMask() & ~Species.compatibleMask(animal.getSpecies())) == 0;
+    }
+
+    /**
+     * @return a mask with bit s set for every species s living here.
+     */
+    public long getSpeciesMask() {
+        return animals.speciesMask;
+    }
+
+    /**
+     * @param species a species ordinal.
+     * @return the number of animals of that species living here.
+     */
+    public int getSpeciesCount(int species) {
+        return animals.speciesCounts[species];
+    }
+
+    /**
+     * @return the animals in the animal habitat. Changing the list, through any
+     *         of its methods, iterators or sub lists, keeps the species summary
+     *         up to date.
      */
     public ArrayList<Animal> getAnimals() {
         return animals;
@@ -53,4 +142,377 @@ public abstract class AnimalHabitat extends Area {
     public int getCapacity() {
         return capacity;
     }
-}
\ No newline at end of file
+
+    /**
+     * The list of animals in a habitat, with a summary of the species in it. Every
+     * method that changes the list updates the summary, so it stays exact however
+     * the list returned by getAnimals is changed. Single animals are counted in
+     * and out; bulk changes count the whole list again.
+     */
+    private static final class Residents extends ArrayList<Animal> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Bit s is set if at least one animal of species s is in the list. Lets a
+         * new animal be checked against every resident at once.
+         */
+        private long speciesMask;
+
+        /**
+         * The number of animals of each species in the list, indexed by species
+         * ordinal.
+         */
+        private int[] speciesCounts = new int[Species.MAX_SPECIES];
+
+        /**
+         * Residents constructor for an empty list.
+         */
+        Residents() {
+        }
+
+        /**
+         * Residents constructor.
+         *
+         * @param animals the animals to start with.
+         */
+        Residents(Collection<? extends Animal> animals) {
+            super(animals);
+            countSpecies();
+        }
+
+        /**
+         * Residents constructor for a copy with room for more animals. The
+         * species summary is copied rather than counted again.
+         *
+         * @param from  the list to copy.
+         * @param extra the number of animals about to be added.
+         */
+        Residents(Residents from, int extra) {
+            super(from.size() + extra);
+            super.addAll(from);
+            speciesMask = from.speciesMask;
+            speciesCounts = from.speciesCounts.clone();
+        }
+
+        /**
+         * @param animal an animal that has been put in the list.
+         */
+        private void counted(Animal animal) {
+            int species = animal.getSpecies();
+            speciesCounts[species]++;
+            speciesMask |= 1L << species;
+        }
+
+        /**
+         * @param animal an animal that has been taken out of the list.
+         */
+        private void uncounted(Animal animal) {
+            int species = animal.getSpecies();
+            if (--speciesCounts[species] == 0) {
+                speciesMask &= ~(1L << species);
+            }
+        }
+
+        /**
+         * Counts the species in the list from scratch.
+         */
+        private void countSpecies() {
+            Arrays.fill(speciesCounts, 0);
+            speciesMask = 0;
+            for (int i = 0; i < size(); i++) {
+                counted(get(i));
+            }
+        }
+
+        @Override
+        public boolean add(Animal animal) {
+            super.add(animal);
+            counted(animal);
+            return true;
+        }
+
+        @Override
+        public void add(int index, Animal animal) {
+            super.add(index, animal);
+            counted(animal);
+        }
+
+        @Override
+        public Animal set(int index, Animal animal) {
+            Animal old = super.set(index, animal);
+            uncounted(old);
+            counted(animal);
+            return old;
+        }
+
+        @Override
+        public Animal remove(int index) {
+            Animal old = super.remove(index);
+            uncounted(old);
+            return old;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            int index = indexOf(o);
+            if (index < 0) {
+                return false;
+            }
+            remove(index);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            countSpecies();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Animal> c) {
+            boolean changed = super.addAll(c);
+            countSpecies();
+            return changed;
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends Animal> c) {
+            boolean changed = super.addAll(index, c);
+            countSpecies();
+            return changed;
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            boolean changed = super.removeAll(c);
+            countSpecies();
+            return changed;
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            boolean changed = super.retainAll(c);
+            countSpecies();
+            return changed;
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Animal> filter) {
+            boolean changed = super.removeIf(filter);
+            countSpecies();
+            return changed;
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<Animal> operator) {
+            super.replaceAll(operator);
+            countSpecies();
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            super.removeRange(fromIndex, toIndex);
+            countSpecies();
+        }
+
+        /**
+         * Java 21 gives ArrayList a removeFirst and removeLast that skip
+         * remove(int), so they are sent through it here.
+         *
+         * @return the animal that was first.
+         * @throws NoSuchElementException the list is empty.
+         */
+        public Animal removeFirst() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return remove(0);
+        }
+
+        /**
+         * @return the animal that was last.
+         * @throws NoSuchElementException the list is empty.
+         */
+        public Animal removeLast() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return remove(size() - 1);
+        }
+
+        @Override
+        public Iterator<Animal> iterator() {
+            return listIterator(0);
+        }
+
+        @Override
+        public ListIterator<Animal> listIterator() {
+            return listIterator(0);
+        }
+
+        /**
+         * Iterates with get, and changes the list with the methods above, so
+         * changes made through the iterator are counted once.
+         */
+        @Override
+        public ListIterator<Animal> listIterator(final int index) {
+            if (index < 0 || index > size()) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return new ListIterator<Animal>() {
+                /**
+                 * The index of the animal next returns.
+                 */
+                private int cursor = index;
+
+                /**
+                 * The index of the animal last returned, or -1 if there is none.
+                 */
+                private int last = -1;
+
+                /**
+                 * The modCount of the list this iterator expects.
+                 */
+                private int expectedModCount = modCount;
+
+                public boolean hasNext() {
+                    return cursor < size();
+                }
+
+                public Animal next() {
+                    checkForComodification();
+                    if (cursor >= size()) {
+                        throw new NoSuchElementException();
+                    }
+                    last = cursor++;
+                    return get(last);
+                }
+
+                public boolean hasPrevious() {
+                    return cursor > 0;
+                }
+
+                public Animal previous() {
+                    checkForComodification();
+                    if (cursor <= 0) {
+                        throw new NoSuchElementException();
+                    }
+                    last = --cursor;
+                    return get(last);
+                }
+
+                public int nextIndex() {
+                    return cursor;
+                }
+
+                public int previousIndex() {
+                    return cursor - 1;
+                }
+
+                public void remove() {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    checkForComodification();
+                    Residents.this.remove(last);
+                    cursor = last;
+                    last = -1;
+                    expectedModCount = modCount;
+                }
+
+                public void set(Animal animal) {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    checkForComodification();
+                    Residents.this.set(last, animal);
+                }
+
+                public void add(Animal animal) {
+                    checkForComodification();
+                    Residents.this.add(cursor++, animal);
+                    last = -1;
+                    expectedModCount = modCount;
+                }
+
+                /**
+                 * @throws ConcurrentModificationException the list was changed
+                 *                                         other than through this
+                 *                                         iterator.
+                 */
+                private void checkForComodification() {
+                    if (modCount != expectedModCount) {
+                        throw new ConcurrentModificationException();
+                    }
+                }
+            };
+        }
+
+        /**
+         * A sub list of ArrayList writes to the backing array directly, so a
+         * plain view is used that goes through the methods above. Changing the
+         * list other than through the view leaves the view out of step, as with
+         * any sub list.
+         */
+        @Override
+        public List<Animal> subList(final int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+                throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex);
+            }
+            final int[] size = { toIndex - fromIndex };
+            return new AbstractList<Animal>() {
+                public Animal get(int index) {
+                    return Residents.this.get(fromIndex + check(index, size[0] - 1));
+                }
+
+                public int size() {
+                    return size[0];
+                }
+
+                public Animal set(int index, Animal animal) {
+                    return Residents.this.set(fromIndex + check(index, size[0] - 1), animal);
+                }
+
+                public void add(int index, Animal animal) {
+                    Residents.this.add(fromIndex + check(index, size[0]), animal);
+                    size[0]++;
+                    modCount++;
+                }
+
+                public Animal remove(int index) {
+                    Animal old = Residents.this.remove(fromIndex + check(index, size[0] - 1));
+                    size[0]--;
+                    modCount++;
+                    return old;
+                }
+
+                protected void removeRange(int from, int to) {
+                    Residents.this.removeRange(fromIndex + from, fromIndex + to);
+                    size[0] -= to - from;
+                    modCount++;
+                }
+
+                /**
+                 * @param index the index into the sub list.
+                 * @param max   the largest index allowed.
+                 * @return index.
+                 * @throws IndexOutOfBoundsException index is outside the sub list.
+                 */
+                private int check(int index, int max) {
+                    if (index < 0 || index > max) {
+                        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size[0]);
+                    }
+                    return index;
+                }
+            };
+        }
+
+        @Override
+        public Object clone() {
+            Residents copy = (Residents) super.clone();
+            copy.speciesCounts = speciesCounts.clone();
+            return copy;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package areas;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * The implementation of IArea.
@@ -8,29 +9,184 @@ import java.util.ArrayList;
 public abstract class Area implements IArea {
 
     /**
-     * ArrayList of areaIds adjacent to this area.
+     * Told about every change to the adjacent areaIds, or null. Set by the
+     * AreaRegistry the area is stored in.
      */
-    private ArrayList<Integer> adjacentAreas = new ArrayList<Integer>();
+    private volatile IConnectionListener connectionListener;
 
     /**
-     * @param areaId the areaId to be added to adjacentAreas.
+     * The areaId connectionListener stores this area under. Written before
+     * connectionListener, so it is seen along with it.
+     */
+    private int listenerAreaId = -1;
+
+    /**
+     * Sorted array of areaIds adjacent to this area, with no duplicates. Never
+     * changed in place: adding or removing an areaId swaps in a new array, so an
+     * array that has been handed out stays valid.
+     */
+    private volatile int[] adjacentAreaIds = new int[0];
+
+    /**
+     * @param areaId the areaId to be added to adjacentAreas. Does nothing if it
+     *               is already adjacent.
      */
     public void addAdjacentArea(int areaId) {
-        adjacentAreas.add(areaId);
+        int[] ids = adjacentAreaIds;
+        int index = Arrays.binarySearch(ids, areaId);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        int[] newIds = new int[ids.length + 1];
+        System.arraycopy(ids, 0, newIds, 0, index);
+        newIds[index] = areaId;
+        System.arraycopy(ids, index, newIds, index + 1, ids.length - index);
+        replaceAdjacentAreaIds(newIds);
     }
 
     /**
      * @param areaId the areaId to be removed from adjacentAreas.
      */
 	public void removeAdjacentArea(int areaId){
-        adjacentAreas.remove(Integer.valueOf(areaId));
+        int[] ids = adjacentAreaIds;
+        int index = Arrays.binarySearch(ids, areaId);
+        if (index < 0) {
+            return;
+        }
+        int[] newIds = new int[ids.length - 1];
+        System.arraycopy(ids, 0, newIds, 0, index);
+        System.arraycopy(ids, index + 1, newIds, index, newIds.length - index);
+        replaceAdjacentAreaIds(newIds);
+    }
+
+    /**
+     * @param areaId the areaId being checked.
+     * @return true if areaId is adjacent to this area.
+     */
+    public boolean hasAdjacentArea(int areaId) {
+        return Arrays.binarySearch(adjacentAreaIds, areaId) >= 0;
+    }
+
+    /**
+     * The primitive version of getAdjacentAreas. The array must not be modified.
+     *
+     * @return sorted array of adjacent areaIds.
+     */
+    public int[] getAdjacentAreaIds() {
+        return adjacentAreaIds;
+    }
+
+    /**
+     * Replaces all adjacent areaIds at once.
+     *
+     * @param ids sorted array of areaIds with no duplicates. It is kept, not
+     *            copied, and must not be modified afterwards.
+     * @throws IllegalArgumentException ids is not in strictly ascending order.
+     */
+    public void setAdjacentAreaIds(int[] ids) {
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] <= ids[i - 1]) {
+                throw new IllegalArgumentException("Adjacent areaIds must be sorted with no duplicates.");
+            }
+        }
+        replaceAdjacentAreaIds(ids);
+    }
+
+    /**
+     * setAdjacentAreaIds without the check, for arrays made here that are
+     * already sorted.
+     *
+     * @param ids sorted array of areaIds with no duplicates.
+     */
+    private void replaceAdjacentAreaIds(int[] ids) {
+        adjacentAreaIds = ids;
+        IConnectionListener listener = connectionListener;
+        if (listener != null) {
+            listener.connectionsChanged(this);
+        }
     }
 
     /**
-     * @return ArrayList of adjacent areas.
+     * @param listener told after every addAdjacentArea, removeAdjacentArea and
+     *                 setAdjacentAreaIds that changes something, or null.
+     * @param areaId   the areaId the listener stores this area under, so it can
+     *                 find the area's id without a map of its own.
+     */
+    public void setConnectionListener(IConnectionListener listener, int areaId) {
+        listenerAreaId = areaId;
+        connectionListener = listener;
+    }
+
+    /**
+     * @return the listener told about changes to the adjacent areaIds, or null.
+     */
+    public IConnectionListener getConnectionListener() {
+        return connectionListener;
+    }
+
+    /**
+     * @return the areaId given with the connection listener. Only meaningful
+     *         while getConnectionListener returns that listener.
+     */
+    public int getListenerAreaId() {
+        return listenerAreaId;
+    }
+
+    /**
+     * @return a new ArrayList of adjacent areas, in ascending order. Changing the
+     *         list does not change this area; use addAdjacentArea and
+     *         removeAdjacentArea instead.
      */
     public ArrayList<Integer> getAdjacentAreas() {
-        return adjacentAreas;
+        int[] ids = adjacentAreaIds;
+        ArrayList<Integer> list = new ArrayList<Integer>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            list.add(ids[i]);
+        }
+        return list;
+    }
+
+    /**
+     * Gets the adjacent areaIds of any IArea, using the primitive array when the
+     * area is an Area.
+     *
+     * @param area the area whose adjacent areas are wanted.
+     * @return sorted array of adjacent areaIds with no duplicates. Must not be
+     *         modified.
+     */
+    public static int[] adjacentAreaIdsOf(IArea area) {
+        if (area instanceof Area) {
+            return ((Area) area).getAdjacentAreaIds();
+        }
+        ArrayList<Integer> list = area.getAdjacentAreas();
+        int[] ids = new int[list.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = list.get(i);
+        }
+        Arrays.sort(ids);
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (n == 0 || ids[n - 1] != ids[i]) {
+                ids[n++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, n);
     }
-    
+
+    /**
+     * Checks adjacency on any IArea, using a binary search when the area is an
+     * Area.
+     *
+     * @param area   the area the connection starts from.
+     * @param areaId the areaId the connection goes to.
+     * @return true if areaId is adjacent to area.
+     */
+    public static boolean isAdjacent(IArea area, int areaId) {
+        if (area instanceof Area) {
+            return ((Area) area).hasAdjacentArea(areaId);
+        }
+        return area.getAdjacentAreas().contains(areaId);
+    }
+
 }
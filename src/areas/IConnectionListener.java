@@ -0,0 +1,16 @@
+package areas;
+
+/**
+ * Told when the adjacent areaIds of an Area change, so the zoo that holds the
+ * area can tell whether something it worked out from the connections is out of
+ * date.
+ */
+public interface IConnectionListener {
+
+    /**
+     * Called after the adjacent areaIds of an area have been replaced.
+     *
+     * @param area the area whose connections changed.
+     */
+    public void connectionsChanged(Area area);
+}
@@ -0,0 +1,834 @@
+package dataStructures;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import areas.Area;
+import areas.IConnectionListener;
+import areas.IArea;
+
+/**
+ * The map the zoo keeps its areas in. Areas are stored in an array indexed by
+ * areaId, as ids are small and handed out densely, so getArea(int) needs no
+ * boxing or hashing and adding an area makes no map entry. Only the rare
+ * negative areaId goes in a HashMap of its own.
+ *
+ * It is a HashMap only so getAreas() keeps its type for callers that use the
+ * map directly: every Map method is answered from the array, and the keySet(),
+ * values() and entrySet() views and their entries are made on demand. The
+ * inherited table is never used. Every put and remove is passed on to an
+ * IIdAllocator so a free areaId can be found without probing.
+ *
+ * Each Area stored here is given this registry as its connection listener,
+ * along with its areaId. That tells the registry when its connections change,
+ * so getConnectionVersion only moves for edits to this registry's areas, and
+ * lets getAreaId find an area's id without a reverse map. Each area should only
+ * be stored under one areaId, and in one registry: an Area taken by another
+ * registry is no longer found by getAreaId here.
+ */
+public class AreaRegistry extends HashMap<Integer, IArea> implements IConnections, IConnectionListener {
+
+    /**
+     * Only a plain HashMap copy is ever serialized; see writeReplace.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How far past the areaIds in use a file may put an areaId, on top of one
+     * areaId per byte of the file. The lookup array is as long as the largest
+     * areaId, so loaders reject ids beyond this rather than let a damaged file
+     * ask for an array many times its own size.
+     */
+    public static final int MIN_SPARE_IDS = 1 << 12;
+
+    /**
+     * @param idBound   one more than the largest areaId in use before loading.
+     * @param fileBytes the size of the file being loaded.
+     * @return the first areaId the file may not use.
+     */
+    public static long spareIdLimit(long idBound, long fileBytes) {
+        return idBound + MIN_SPARE_IDS + fileBytes;
+    }
+
+    /**
+     * Keeps track of which areaIds are taken.
+     */
+    private transient IIdAllocator allocator;
+
+    /**
+     * The area stored under each non-negative areaId, or null. Grows by doubling.
+     */
+    private transient IArea[] areasById = new IArea[16];
+
+    /**
+     * A set bit means an area is stored under that non-negative areaId.
+     */
+    private transient BitSet presentIds = new BitSet();
+
+    /**
+     * The number of areas in areasById.
+     */
+    private transient int idCount;
+
+    /**
+     * The areas stored under negative areaIds, or null if there are none.
+     */
+    private transient HashMap<Integer, IArea> negativeAreas;
+
+    /**
+     * Maps each stored IArea that is not an Area back to its areaId, or null if
+     * there are none. An Area keeps its own areaId instead.
+     */
+    private transient IdentityHashMap<IArea, Integer> otherAreaIds;
+
+    /**
+     * Goes up by one every time an area is put or removed, so callers that cache
+     * something about the areas can tell when it is out of date.
+     */
+    private transient int version;
+
+    /**
+     * Goes up by one every time the connections of an Area stored here change.
+     */
+    private transient int connectionVersion;
+
+    /**
+     * AreaRegistry constructor.
+     *
+     * @param allocator the allocator that is kept up to date with the keys.
+     */
+    public AreaRegistry(IIdAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    /**
+     * @return the lowest areaId that has no area, not counting ids below the
+     *         allocator's first id.
+     */
+    public int nextFreeId() {
+        return allocator.nextFreeId();
+    }
+
+    /**
+     * The primitive version of get.
+     *
+     * @param areaId the areaId of the area.
+     * @return the area stored under areaId, or null if there is none.
+     */
+    public IArea getArea(int areaId) {
+        if (areaId >= 0) {
+            return areaId < areasById.length ? areasById[areaId] : null;
+        }
+        return negativeAreas == null ? null : negativeAreas.get(areaId);
+    }
+
+    /**
+     * The primitive version of put.
+     *
+     * @param areaId the areaId to store the area under.
+     * @param area   the area to store.
+     * @return the area that was stored under areaId before, or null.
+     * @throws NullPointerException area is null. A key with no area is simply
+     *                              not in the map.
+     */
+    public IArea putArea(int areaId, IArea area) {
+        if (area == null) {
+            throw new NullPointerException("An AreaRegistry does not store null areas.");
+        }
+        IArea old;
+        if (areaId >= 0) {
+            if (areaId >= areasById.length) {
+                ensureCapacity(Math.max(areasById.length * 2, areaId + 1));
+            }
+            old = areasById[areaId];
+            areasById[areaId] = area;
+            if (old == null) {
+                allocator.claim(areaId);
+                presentIds.set(areaId);
+                idCount++;
+            }
+        } else {
+            if (negativeAreas == null) {
+                negativeAreas = new HashMap<Integer, IArea>();
+            }
+            old = negativeAreas.put(areaId, area);
+        }
+        version++;
+        if (old != null) {
+            forget(areaId, old);
+        }
+        remember(areaId, area);
+        return old;
+    }
+
+    /**
+     * The primitive version of remove.
+     *
+     * @param areaId the areaId of the area to remove.
+     * @return the area that was stored under areaId, or null.
+     */
+    public IArea removeArea(int areaId) {
+        IArea old;
+        if (areaId >= 0) {
+            old = getArea(areaId);
+            if (old == null) {
+                return null;
+            }
+            areasById[areaId] = null;
+            allocator.release(areaId);
+            presentIds.clear(areaId);
+            idCount--;
+        } else {
+            old = negativeAreas == null ? null : negativeAreas.remove(areaId);
+            if (old == null) {
+                return null;
+            }
+        }
+        version++;
+        forget(areaId, old);
+        return old;
+    }
+
+    /**
+     * Makes room for areaIds below idBound, so adding many areas at once does not
+     * grow the lookup array again and again.
+     *
+     * @param idBound one more than the largest areaId about to be added.
+     */
+    public void ensureCapacity(int idBound) {
+        if (idBound > areasById.length) {
+            areasById = Arrays.copyOf(areasById, idBound);
+        }
+    }
+
+    /**
+     * @param fromAreaId the area the connection starts from.
+     * @param toAreaId   the area the connection goes to.
+     * @return true if the area stored under fromAreaId is connected to toAreaId.
+     */
+    public boolean hasConnection(int fromAreaId, int toAreaId) {
+        IArea area = getArea(fromAreaId);
+        return area != null && Area.isAdjacent(area, toAreaId);
+    }
+
+    /**
+     * @return the non-negative areaIds that have an area. Must not be modified.
+     */
+    public BitSet getAreaIdSet() {
+        return presentIds;
+    }
+
+    /**
+     * @return a number that changes whenever an area is put or removed.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return a number that changes whenever the connections of an Area stored
+     *         here change.
+     */
+    public int getConnectionVersion() {
+        return connectionVersion;
+    }
+
+    public void connectionsChanged(Area area) {
+        connectionVersion++;
+    }
+
+    /**
+     * @param area the area being looked for.
+     * @return true if the area is stored under any areaId.
+     */
+    public boolean containsArea(IArea area) {
+        if (area instanceof Area) {
+            Area stored = (Area) area;
+            return stored.getConnectionListener() == this && getArea(stored.getListenerAreaId()) == area;
+        }
+        return otherAreaIds != null && otherAreaIds.containsKey(area);
+    }
+
+    /**
+     * @param area the area being looked for.
+     * @return the areaId the area is stored under, or -1 if it is not stored.
+     */
+    public int getAreaId(IArea area) {
+        if (!containsArea(area)) {
+            return -1;
+        }
+        if (area instanceof Area) {
+            return ((Area) area).getListenerAreaId();
+        }
+        return otherAreaIds.get(area);
+    }
+
+    /**
+     * Records the areaId an area has just been stored under.
+     *
+     * @param areaId the areaId the area is stored under.
+     * @param area   the area.
+     */
+    private void remember(int areaId, IArea area) {
+        if (area instanceof Area) {
+            ((Area) area).setConnectionListener(this, areaId);
+            return;
+        }
+        if (otherAreaIds == null) {
+            otherAreaIds = new IdentityHashMap<IArea, Integer>();
+        }
+        otherAreaIds.put(area, areaId);
+    }
+
+    /**
+     * Drops what remember recorded, if it still points at the given areaId, and
+     * stops an Area from telling the registry about its connections unless
+     * another registry has taken it since.
+     *
+     * @param areaId the areaId the area was stored under.
+     * @param area   the area that is no longer stored under areaId.
+     */
+    private void forget(int areaId, IArea area) {
+        if (area instanceof Area) {
+            Area stored = (Area) area;
+            if (stored.getConnectionListener() == this && stored.getListenerAreaId() == areaId) {
+                stored.setConnectionListener(null, -1);
+            }
+            return;
+        }
+        Integer indexed = otherAreaIds == null ? null : otherAreaIds.get(area);
+        if (indexed != null && indexed == areaId) {
+            otherAreaIds.remove(area);
+        }
+    }
+
+    @Override
+    public int size() {
+        return idCount + (negativeAreas == null ? 0 : negativeAreas.size());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public IArea get(Object areaId) {
+        return areaId instanceof Integer ? getArea((Integer) areaId) : null;
+    }
+
+    @Override
+    public IArea getOrDefault(Object areaId, IArea defaultArea) {
+        IArea area = get(areaId);
+        return area == null ? defaultArea : area;
+    }
+
+    @Override
+    public boolean containsKey(Object areaId) {
+        return get(areaId) != null;
+    }
+
+    /**
+     * Compares areas by reference, the same way getAreaId does.
+     */
+    @Override
+    public boolean containsValue(Object area) {
+        return area instanceof IArea && containsArea((IArea) area);
+    }
+
+    @Override
+    public IArea put(Integer areaId, IArea area) {
+        return putArea(areaId, area);
+    }
+
+    @Override
+    public IArea putIfAbsent(Integer areaId, IArea area) {
+        IArea old = get(areaId);
+        if (old == null) {
+            putArea(areaId, area);
+        }
+        return old;
+    }
+
+    @Override
+    public void putAll(Map<? extends Integer, ? extends IArea> m) {
+        for (Map.Entry<? extends Integer, ? extends IArea> e : m.entrySet()) {
+            putArea(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public IArea remove(Object areaId) {
+        return areaId instanceof Integer ? removeArea((Integer) areaId) : null;
+    }
+
+    @Override
+    public boolean remove(Object areaId, Object area) {
+        if (area != null && get(areaId) == area) {
+            removeArea((Integer) areaId);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        for (int areaId = presentIds.nextSetBit(0); areaId >= 0; areaId = presentIds.nextSetBit(areaId + 1)) {
+            forget(areaId, areasById[areaId]);
+            areasById[areaId] = null;
+        }
+        if (negativeAreas != null) {
+            for (Map.Entry<Integer, IArea> e : negativeAreas.entrySet()) {
+                forget(e.getKey(), e.getValue());
+            }
+        }
+        allocator.reset();
+        presentIds.clear();
+        idCount = 0;
+        negativeAreas = null;
+        otherAreaIds = null;
+        version++;
+    }
+
+    @Override
+    public IArea replace(Integer areaId, IArea area) {
+        if (containsKey(areaId)) {
+            return putArea(areaId, area);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean replace(Integer areaId, IArea oldArea, IArea newArea) {
+        if (containsKey(areaId) && Objects.equals(get(areaId), oldArea)) {
+            putArea(areaId, newArea);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super Integer, ? super IArea, ? extends IArea> function) {
+        Iterator<Map.Entry<Integer, IArea>> entries = new EntryIterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, IArea> entry = entries.next();
+            entry.setValue(function.apply(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Integer, ? super IArea> action) {
+        Iterator<Map.Entry<Integer, IArea>> entries = new EntryIterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, IArea> entry = entries.next();
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public IArea computeIfAbsent(Integer areaId, Function<? super Integer, ? extends IArea> f) {
+        IArea area = get(areaId);
+        if (area == null) {
+            area = f.apply(areaId);
+            if (area != null) {
+                putArea(areaId, area);
+            }
+        }
+        return area;
+    }
+
+    @Override
+    public IArea computeIfPresent(Integer areaId,
+            BiFunction<? super Integer, ? super IArea, ? extends IArea> f) {
+        IArea old = get(areaId);
+        if (old == null) {
+            return null;
+        }
+        IArea area = f.apply(areaId, old);
+        if (area == null) {
+            removeArea(areaId);
+        } else {
+            putArea(areaId, area);
+        }
+        return area;
+    }
+
+    @Override
+    public IArea compute(Integer areaId, BiFunction<? super Integer, ? super IArea, ? extends IArea> f) {
+        IArea area = f.apply(areaId, get(areaId));
+        if (area == null) {
+            removeArea(areaId);
+        } else {
+            putArea(areaId, area);
+        }
+        return area;
+    }
+
+    @Override
+    public IArea merge(Integer areaId, IArea area,
+            BiFunction<? super IArea, ? super IArea, ? extends IArea> f) {
+        IArea old = get(areaId);
+        IArea merged = old == null ? area : f.apply(old, area);
+        if (merged == null) {
+            removeArea(areaId);
+        } else {
+            putArea(areaId, merged);
+        }
+        return merged;
+    }
+
+    /**
+     * @return a plain HashMap with the same areas. A copy must not share this
+     *         registry's allocator and indexes.
+     */
+    @Override
+    public Object clone() {
+        return new HashMap<Integer, IArea>(this);
+    }
+
+    /**
+     * Serializes a plain HashMap copy, as the inherited table is empty.
+     *
+     * @return a HashMap with the same areas.
+     */
+    private Object writeReplace() {
+        return new HashMap<Integer, IArea>(this);
+    }
+
+    @Override
+    public Set<Integer> keySet() {
+        return new AbstractSet<Integer>() {
+            public Iterator<Integer> iterator() {
+                final EntryIterator entries = new EntryIterator();
+                return new Iterator<Integer>() {
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    public Integer next() {
+                        return entries.next().getKey();
+                    }
+
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            public int size() {
+                return AreaRegistry.this.size();
+            }
+
+            public boolean contains(Object areaId) {
+                return containsKey(areaId);
+            }
+
+            public boolean remove(Object areaId) {
+                return AreaRegistry.this.remove(areaId) != null;
+            }
+
+            public void clear() {
+                AreaRegistry.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<IArea> values() {
+        return new AbstractCollection<IArea>() {
+            public Iterator<IArea> iterator() {
+                final EntryIterator entries = new EntryIterator();
+                return new Iterator<IArea>() {
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    public IArea next() {
+                        return entries.next().getValue();
+                    }
+
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            public int size() {
+                return AreaRegistry.this.size();
+            }
+
+            public boolean contains(Object area) {
+                return containsValue(area);
+            }
+
+            public void clear() {
+                AreaRegistry.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, IArea>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, IArea>>() {
+            public Iterator<Map.Entry<Integer, IArea>> iterator() {
+                return new EntryIterator();
+            }
+
+            public int size() {
+                return AreaRegistry.this.size();
+            }
+
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                IArea area = get(e.getKey());
+                return area != null && area.equals(e.getValue());
+            }
+
+            public boolean remove(Object o) {
+                if (!contains(o)) {
+                    return false;
+                }
+                AreaRegistry.this.remove(((Map.Entry<?, ?>) o).getKey());
+                return true;
+            }
+
+            public void clear() {
+                AreaRegistry.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Iterates over the areas in ascending areaId order, then over any negative
+     * areaIds, making each entry as it goes. Removing through it and setting an
+     * entry's value keep the allocator and indexes up to date; any other change
+     * to the registry while iterating makes next throw
+     * ConcurrentModificationException.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<Integer, IArea>> {
+
+        /**
+         * The next non-negative areaId to return, or -1 once they are done.
+         */
+        private int nextId = presentIds.nextSetBit(0);
+
+        /**
+         * The entries with negative areaIds, once the others are done.
+         */
+        private Iterator<Map.Entry<Integer, IArea>> negatives;
+
+        /**
+         * The entry last returned by next, or null.
+         */
+        private AreaEntry last;
+
+        /**
+         * The registry's version when this iterator last changed it.
+         */
+        private int expectedVersion = version;
+
+        public boolean hasNext() {
+            if (nextId >= 0) {
+                return true;
+            }
+            return negatives().hasNext();
+        }
+
+        public Map.Entry<Integer, IArea> next() {
+            if (version != expectedVersion) {
+                throw new ConcurrentModificationException();
+            }
+            if (nextId >= 0) {
+                int areaId = nextId;
+                nextId = presentIds.nextSetBit(areaId + 1);
+                last = new AreaEntry(areaId, areasById[areaId]);
+            } else {
+                if (!negatives().hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<Integer, IArea> entry = negatives.next();
+                last = new AreaEntry(entry.getKey(), entry.getValue());
+            }
+            return last;
+        }
+
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            if (version != expectedVersion) {
+                throw new ConcurrentModificationException();
+            }
+            if (last.areaId >= 0) {
+                removeArea(last.areaId);
+            } else {
+                // Through the HashMap's own iterator, which would otherwise
+                // see the removal as a concurrent change.
+                negatives.remove();
+                version++;
+                forget(last.areaId, last.area);
+            }
+            last = null;
+            expectedVersion = version;
+        }
+
+        /**
+         * @return the iterator over the negative areaIds, made when first needed.
+         */
+        private Iterator<Map.Entry<Integer, IArea>> negatives() {
+            if (negatives == null) {
+                HashMap<Integer, IArea> areas = negativeAreas == null ? new HashMap<Integer, IArea>()
+                        : negativeAreas;
+                negatives = areas.entrySet().iterator();
+            }
+            return negatives;
+        }
+
+        /**
+         * One entry of the registry, made by next.
+         */
+        private class AreaEntry implements Map.Entry<Integer, IArea> {
+
+            /**
+             * The areaId of the entry.
+             */
+            private final int areaId;
+
+            /**
+             * The area of the entry, kept up to date by setValue.
+             */
+            private IArea area;
+
+            /**
+             * AreaEntry constructor.
+             *
+             * @param areaId the areaId of the entry.
+             * @param area   the area of the entry.
+             */
+            AreaEntry(int areaId, IArea area) {
+                this.areaId = areaId;
+                this.area = area;
+            }
+
+            public Integer getKey() {
+                return areaId;
+            }
+
+            public IArea getValue() {
+                return area;
+            }
+
+            public IArea setValue(IArea newArea) {
+                // Replacing the value of an existing key does not disturb the
+                // iteration.
+                boolean current = version == expectedVersion;
+                IArea old = putArea(areaId, newArea);
+                if (current) {
+                    expectedVersion = version;
+                }
+                area = newArea;
+                return old;
+            }
+
+            public boolean equals(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return getKey().equals(e.getKey()) && area.equals(e.getValue());
+            }
+
+            public int hashCode() {
+                return areaId ^ area.hashCode();
+            }
+
+            public String toString() {
+                return areaId + "=" + area;
+            }
+        }
+    }
+
+    /**
+     * Times building and reading the registry against a plain HashMap, and
+     * measures the bytes each allocates on this thread.
+     */
+    public static void main(String[] args) {
+        final int areaCount = 200000;
+        final int rounds = 20;
+        IArea[] areas = new IArea[areaCount];
+        for (int i = 0; i < areaCount; i++) {
+            areas[i] = new areas.PicnicArea();
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            long bytes = threads.getCurrentThreadAllocatedBytes();
+            long time = System.nanoTime();
+            HashMap<Integer, IArea> plain = new HashMap<Integer, IArea>();
+            for (int i = 0; i < areaCount; i++) {
+                plain.put(i, areas[i]);
+            }
+            long plainBuildTime = System.nanoTime() - time;
+            long plainBuildBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+            bytes = threads.getCurrentThreadAllocatedBytes();
+            time = System.nanoTime();
+            AreaRegistry registry = new AreaRegistry(new BitSetIdAllocator(0));
+            for (int i = 0; i < areaCount; i++) {
+                registry.putArea(i, areas[i]);
+            }
+            long registryBuildTime = System.nanoTime() - time;
+            long registryBuildBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+            long found = 0;
+            bytes = threads.getCurrentThreadAllocatedBytes();
+            time = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < areaCount; i++) {
+                    if (plain.get(i) == areas[i]) {
+                        found++;
+                    }
+                }
+            }
+            long plainReadTime = System.nanoTime() - time;
+            long plainReadBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+            bytes = threads.getCurrentThreadAllocatedBytes();
+            time = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < areaCount; i++) {
+                    if (registry.getArea(i) == areas[i]) {
+                        found++;
+                    }
+                }
+            }
+            long registryReadTime = System.nanoTime() - time;
+            long registryReadBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+            assert (found == 2L * rounds * areaCount);
+
+            System.out.printf("build %d areas: HashMap %d ms %d KB, AreaRegistry %d ms %d KB%n", areaCount,
+                    plainBuildTime / 1000000, plainBuildBytes / 1024, registryBuildTime / 1000000,
+                    registryBuildBytes / 1024);
+            System.out.printf("%d lookups: HashMap.get %d ms %d KB, getArea %d ms %d KB%n", rounds * areaCount,
+                    plainReadTime / 1000000, plainReadBytes / 1024, registryReadTime / 1000000,
+                    registryReadBytes / 1024);
+        }
+    }
+}
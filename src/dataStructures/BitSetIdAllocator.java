@@ -0,0 +1,71 @@
+package dataStructures;
+
+import java.util.BitSet;
+
+/**
+ * The default implementation of IIdAllocator. Stores one bit per id and always
+ * hands out the lowest free id, so ids are reused in the same order as the old
+ * linear probe.
+ */
+public class BitSetIdAllocator implements IIdAllocator {
+
+    /**
+     * A set bit means the id at that index is in use.
+     */
+    private BitSet used = new BitSet();
+
+    /**
+     * The smallest id this allocator hands out. Ids below it can still be
+     * claimed (e.g. the entrance's 0) but are never returned by nextFreeId.
+     */
+    private int firstId;
+
+    /**
+     * No id between firstId and this one is free. Lets nextFreeId skip the dense
+     * prefix of used ids instead of scanning it on every call.
+     */
+    private int lowestFree;
+
+    /**
+     * BitSetIdAllocator constructor.
+     * 
+     * @param firstId the smallest id that will be handed out.
+     */
+    public BitSetIdAllocator(int firstId) {
+        this.firstId = firstId;
+        lowestFree = firstId;
+    }
+
+    /**
+     * @return the lowest free id that is at least firstId.
+     */
+    public int nextFreeId() {
+        lowestFree = used.nextClearBit(lowestFree);
+        return lowestFree;
+    }
+
+    /**
+     * @param id the id to be marked as in use.
+     */
+    public void claim(int id) {
+        used.set(id);
+    }
+
+    /**
+     * @param id the id to be marked as free.
+     */
+    public void release(int id) {
+        used.clear(id);
+        if (id >= firstId && id < lowestFree) {
+            lowestFree = id;
+        }
+    }
+
+    /**
+     * Marks every id as free.
+     */
+    public void reset() {
+        used.clear();
+        lowestFree = firstId;
+    }
+}
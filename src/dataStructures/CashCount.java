@@ -17,11 +17,165 @@ public class CashCount implements ICashCount {
     public static final int TWENTY_P_COIN = 6;
     public static final int TEN_P_COIN = 7;
 
+    /**
+     * The value in pence of the cash at each index of cashSupply. Private so that
+     * no caller can change a value; read it through penceOf.
+     */
+    private static final int[] DENOMINATIONS_PENCE = { 2000, 1000, 500, 200, 100, 50, 20, 10 };
+
+    /**
+     * The number of different notes and coins, i.e. one past the highest index.
+     */
+    public static final int DENOMINATION_COUNT = DENOMINATIONS_PENCE.length;
+
     /**
      * The storage of number of each type of cash.
      */
-    private int[] cashSupply = new int[8];
-    
+    private int[] cashSupply = new int[DENOMINATIONS_PENCE.length];
+
+    /**
+     * @param index the index of the cash in DENOMINATIONS_PENCE.
+     * @return the number of that cash.
+     */
+    public int get(int index) {
+        return cashSupply[index];
+    }
+
+    /**
+     * @param index the index of the cash in DENOMINATIONS_PENCE.
+     * @param count the number to set that cash as.
+     */
+    public void set(int index, int count) {
+        cashSupply[index] = count;
+    }
+
+    /**
+     * Adds every note and coin of another cash count to this one.
+     *
+     * @param other the cash to add.
+     */
+    public void addAll(ICashCount other) {
+        if (other instanceof CashCount) {
+            int[] otherSupply = ((CashCount) other).cashSupply;
+            for (int i = 0; i < cashSupply.length; i++) {
+                cashSupply[i] += otherSupply[i];
+            }
+            return;
+        }
+        for (int i = 0; i < cashSupply.length; i++) {
+            cashSupply[i] += countOf(other, i);
+        }
+    }
+
+    /**
+     * @return the value of all the cash in pence.
+     */
+    public int totalPence() {
+        int total = 0;
+        for (int i = 0; i < cashSupply.length; i++) {
+            total += cashSupply[i] * DENOMINATIONS_PENCE[i];
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of one cash from any ICashCount. Reads the array directly
+     * for a CashCount, so only other implementations go through the getters.
+     *
+     * @param cashCount the cash count to read.
+     * @param index     the index of the cash in DENOMINATIONS_PENCE.
+     * @return the number of that cash.
+     */
+    public static int countOf(ICashCount cashCount, int index) {
+        if (cashCount instanceof CashCount) {
+            return ((CashCount) cashCount).cashSupply[index];
+        }
+        switch (index) {
+        case TWENTY_POUND_NOTE:
+            return cashCount.getNrNotes_20pounds();
+        case TEN_POUND_NOTE:
+            return cashCount.getNrNotes_10pounds();
+        case FIVE_POUND_NOTE:
+            return cashCount.getNrNotes_5pounds();
+        case TWO_POUND_COIN:
+            return cashCount.getNrCoins_2pounds();
+        case ONE_POUND_COIN:
+            return cashCount.getNrCoins_1pound();
+        case FIFTY_P_COIN:
+            return cashCount.getNrCoins_50p();
+        case TWENTY_P_COIN:
+            return cashCount.getNrCoins_20p();
+        case TEN_P_COIN:
+            return cashCount.getNrCoins_10p();
+        default:
+            throw new IllegalArgumentException("Must be an index from 0 to 7.");
+        }
+    }
+
+    /**
+     * Sets the number of one cash in any ICashCount. Writes the array directly
+     * for a CashCount, so only other implementations go through the setters.
+     *
+     * @param cashCount the cash count to write.
+     * @param index     the index of the cash in DENOMINATIONS_PENCE.
+     * @param count     the number to set that cash as.
+     */
+    public static void setCountOf(ICashCount cashCount, int index, int count) {
+        if (cashCount instanceof CashCount) {
+            ((CashCount) cashCount).cashSupply[index] = count;
+            return;
+        }
+        switch (index) {
+        case TWENTY_POUND_NOTE:
+            cashCount.setNrNotes_20pounds(count);
+            break;
+        case TEN_POUND_NOTE:
+            cashCount.setNrNotes_10pounds(count);
+            break;
+        case FIVE_POUND_NOTE:
+            cashCount.setNrNotes_5pounds(count);
+            break;
+        case TWO_POUND_COIN:
+            cashCount.setNrCoins_2pounds(count);
+            break;
+        case ONE_POUND_COIN:
+            cashCount.setNrCoins_1pound(count);
+            break;
+        case FIFTY_P_COIN:
+            cashCount.setNrCoins_50p(count);
+            break;
+        case TWENTY_P_COIN:
+            cashCount.setNrCoins_20p(count);
+            break;
+        case TEN_P_COIN:
+            cashCount.setNrCoins_10p(count);
+            break;
+        default:
+            throw new IllegalArgumentException("Must be an index from 0 to 7.");
+        }
+    }
+
+    /**
+     * @param index the index of a note or coin, from 0 to DENOMINATION_COUNT - 1.
+     * @return its value in pence.
+     */
+    public static int penceOf(int index) {
+        return DENOMINATIONS_PENCE[index];
+    }
+
+    /**
+     * @param pence the value of a note or coin in pence.
+     * @return its index in DENOMINATIONS_PENCE, or -1 if there is no such cash.
+     */
+    public static int indexOf(int pence) {
+        for (int i = 0; i < DENOMINATIONS_PENCE.length; i++) {
+            if (DENOMINATIONS_PENCE[i] == pence) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
 
     /**
      * @param noteCount the notecount for each respective type of cash.
@@ -0,0 +1,120 @@
+package dataStructures;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+import areas.Area;
+import areas.IArea;
+
+/**
+ * A frozen copy of the connections between areas, in compressed sparse row
+ * form. The adjacent areaIds of area i are targets[offsets[i]] up to
+ * targets[offsets[i + 1]], in ascending order. Later changes to the zoo are not
+ * seen by a snapshot, so it is meant for read-heavy work on a layout that is not
+ * being edited.
+ */
+public class GraphSnapshot implements IConnections {
+
+    /**
+     * Where each area's row starts in targets. Has one more entry than there are
+     * areaIds.
+     */
+    private final int[] offsets;
+
+    /**
+     * The adjacent areaIds of every area, one row after another.
+     */
+    private final int[] targets;
+
+    /**
+     * A set bit means an area exists with that areaId.
+     */
+    private final BitSet present;
+
+    /**
+     * GraphSnapshot constructor. Copies the connections of every area with a
+     * non-negative areaId.
+     *
+     * @param areas the areas of the zoo, keyed by areaId.
+     */
+    public GraphSnapshot(Map<Integer, IArea> areas) {
+        int idBound = 0;
+        for (Integer areaId : areas.keySet()) {
+            idBound = Math.max(idBound, areaId + 1);
+        }
+        int[][] rows = new int[idBound][];
+        present = new BitSet(idBound);
+        int edgeCount = 0;
+        for (Map.Entry<Integer, IArea> entry : areas.entrySet()) {
+            int areaId = entry.getKey();
+            if (areaId < 0) {
+                continue;
+            }
+            rows[areaId] = Area.adjacentAreaIdsOf(entry.getValue());
+            present.set(areaId);
+            edgeCount += rows[areaId].length;
+        }
+        offsets = new int[idBound + 1];
+        targets = new int[edgeCount];
+        for (int i = 0; i < idBound; i++) {
+            int start = offsets[i];
+            if (rows[i] != null) {
+                System.arraycopy(rows[i], 0, targets, start, rows[i].length);
+                start += rows[i].length;
+            }
+            offsets[i + 1] = start;
+        }
+    }
+
+    /**
+     * @return one more than the largest areaId in the snapshot.
+     */
+    public int idBound() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @param areaId the areaId being checked.
+     * @return true if an area with areaId was in the zoo.
+     */
+    public boolean hasArea(int areaId) {
+        return areaId >= 0 && present.get(areaId);
+    }
+
+    /**
+     * @param fromAreaId the area the connection starts from.
+     * @param toAreaId   the area the connection goes to.
+     * @return true if toAreaId is adjacent to fromAreaId.
+     */
+    public boolean hasConnection(int fromAreaId, int toAreaId) {
+        if (fromAreaId < 0 || fromAreaId >= idBound()) {
+            return false;
+        }
+        return Arrays.binarySearch(targets, offsets[fromAreaId], offsets[fromAreaId + 1], toAreaId) >= 0;
+    }
+
+    /**
+     * @param areaId the area whose row is wanted.
+     * @return the index in getTargets() where the area's adjacent areaIds start.
+     */
+    public int rowStart(int areaId) {
+        return offsets[areaId];
+    }
+
+    /**
+     * @param areaId the area whose row is wanted.
+     * @return the index in getTargets() just after the area's adjacent areaIds.
+     */
+    public int rowEnd(int areaId) {
+        return offsets[areaId + 1];
+    }
+
+    /**
+     * @return the adjacent areaIds of every area, one row after another. Must not
+     *         be modified.
+     */
+    public int[] getTargets() {
+        return targets;
+    }
+}
@@ -0,0 +1,16 @@
+package dataStructures;
+
+/**
+ * Read access to the one-way connections between areas, so path checks can run
+ * against either the live zoo or a GraphSnapshot.
+ */
+public interface IConnections {
+
+    /**
+     * @param fromAreaId the area the connection starts from.
+     * @param toAreaId   the area the connection goes to.
+     * @return true if visitors can go from fromAreaId to toAreaId. False if
+     *         fromAreaId does not exist.
+     */
+    public boolean hasConnection(int fromAreaId, int toAreaId);
+}
@@ -0,0 +1,28 @@
+package dataStructures;
+
+/**
+ * Hands out non-negative integer ids and keeps track of which ones are in use.
+ * Used by the zoo to generate areaIds without probing the areas HashMap.
+ */
+public interface IIdAllocator {
+
+    /**
+     * @return the lowest id that is not in use. Does not mark it as in use.
+     */
+    public int nextFreeId();
+
+    /**
+     * @param id the id to be marked as in use.
+     */
+    public void claim(int id);
+
+    /**
+     * @param id the id to be marked as free so it can be handed out again.
+     */
+    public void release(int id);
+
+    /**
+     * Marks every id as free.
+     */
+    public void reset();
+}
@@ -0,0 +1,541 @@
+package zoo;
+
+import dataStructures.CashCount;
+import dataStructures.ICashCount;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the cash in a ticket machine, so the till can be
+ * rebuilt after a crash. Every change to the stock is written as a fixed-width
+ * binary record: a kind, a count for each denomination and a checksum. A
+ * SNAPSHOT record sets the stock outright and a DELTA record adds to it.
+ *
+ * Appending a record only puts it in a buffer, which is written to the file
+ * when it holds groupSize records, and returns the record's sequence number. A
+ * record is durable once commit has been called with its sequence number and
+ * has returned. Commits use group commit: one caller at a time writes the
+ * buffer and forces the file, and every record appended before it started is
+ * made durable by that one force. Callers that append while a force is running
+ * wait for it to end and then share the next one, so gates selling at once pay
+ * for one force between them rather than one each. Once enough records have
+ * been written, a commit replaces the journal with a single snapshot, so
+ * replaying it never takes long.
+ *
+ * Opening a journal replays it. A short or corrupt record at the very end, left
+ * by a crash during a write, is cut off. A corrupt record with more records
+ * after it means the file itself is damaged, and is not cut off.
+ */
+public class CashJournal {
+
+    /**
+     * The kind of a record that sets the stock outright.
+     */
+    public static final int SNAPSHOT = 1;
+
+    /**
+     * The kind of a record that adds to the stock.
+     */
+    public static final int DELTA = 2;
+
+    /**
+     * The size of a record in bytes: the kind, one int per denomination and the
+     * checksum.
+     */
+    public static final int RECORD_BYTES = 4 * (CashCount.DENOMINATION_COUNT + 2);
+
+    /**
+     * The file the journal is kept in.
+     */
+    private final Path file;
+
+    /**
+     * The open journal file, positioned at its end.
+     */
+    private FileChannel channel;
+
+    /**
+     * Records not yet written to the file.
+     */
+    private final ByteBuffer pending;
+
+    /**
+     * Works out each record's checksum.
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The stock after every record so far, written or not.
+     */
+    private final int[] stock = new int[CashCount.DENOMINATION_COUNT];
+
+    /**
+     * The number of records in the file and in pending.
+     */
+    private long records;
+
+    /**
+     * The sequence number of the last record appended. Unlike records, it is
+     * not reset by compact.
+     */
+    private long appended;
+
+    /**
+     * The sequence number of the last record known to be on the disk.
+     */
+    private volatile long durable;
+
+    /**
+     * Held by the one caller forcing the file. Taken before the journal's own
+     * lock, never after it.
+     */
+    private final Object commitLock = new Object();
+
+    /**
+     * The number of times commit has forced the file.
+     */
+    private volatile long forces;
+
+    /**
+     * The number of records after which the journal is replaced by a snapshot.
+     */
+    private final long snapshotInterval;
+
+    /**
+     * CashJournal constructor. Opens the journal, creating it if needed, and
+     * replays it.
+     *
+     * @param file             the file to keep the journal in.
+     * @param groupSize        the most records held before they are flushed.
+     * @param snapshotInterval the number of records after which the journal is
+     *                         replaced by a snapshot.
+     * @throws IOException              the file can not be read or written.
+     * @throws IllegalArgumentException groupSize or snapshotInterval is less than
+     *                                  1.
+     */
+    public CashJournal(Path file, int groupSize, long snapshotInterval) throws IOException {
+        if (groupSize < 1 || snapshotInterval < 1) {
+            throw new IllegalArgumentException("The group size and snapshot interval must be at least 1.");
+        }
+        this.file = file;
+        this.snapshotInterval = snapshotInterval;
+        pending = ByteBuffer.allocateDirect(groupSize * RECORD_BYTES);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        replay();
+        appended = records;
+        durable = records;
+    }
+
+    /**
+     * @return true if nothing has ever been journalled.
+     */
+    public synchronized boolean isEmpty() {
+        return records == 0;
+    }
+
+    /**
+     * @return the stock after every record journalled so far.
+     */
+    public synchronized CashCount getCash() {
+        CashCount cash = new CashCount();
+        for (int i = 0; i < stock.length; i++) {
+            cash.set(i, stock[i]);
+        }
+        return cash;
+    }
+
+    /**
+     * Journals setting the stock outright.
+     *
+     * @param cash the new stock.
+     * @return the sequence number of the record, to pass to commit.
+     * @throws IOException the journal can not be written.
+     */
+    public synchronized long snapshot(ICashCount cash) throws IOException {
+        for (int i = 0; i < stock.length; i++) {
+            stock[i] = CashCount.countOf(cash, i);
+        }
+        return append(SNAPSHOT, stock);
+    }
+
+    /**
+     * Journals a change to the stock.
+     *
+     * @param deltas the count added to each denomination, indexed like
+     *               Zoo.CASH_VALUES. May be negative.
+     * @return the sequence number of the record, to pass to commit.
+     * @throws IOException the journal can not be written.
+     */
+    public synchronized long delta(int[] deltas) throws IOException {
+        for (int i = 0; i < stock.length; i++) {
+            stock[i] += deltas[i];
+        }
+        return append(DELTA, deltas);
+    }
+
+    /**
+     * Makes a record and every record before it durable. Returns at once if
+     * another caller's force already covered it. Otherwise waits for any force
+     * in progress, then writes everything appended so far and forces it, so
+     * records appended by other callers in the meantime share this force.
+     *
+     * @param sequence the sequence number returned when the record was appended.
+     * @throws IOException the journal can not be written.
+     */
+    public void commit(long sequence) throws IOException {
+        if (durable >= sequence) {
+            return;
+        }
+        synchronized (commitLock) {
+            if (durable >= sequence) {
+                return;
+            }
+            FileChannel out;
+            long upTo;
+            synchronized (this) {
+                writePending();
+                out = channel;
+                upTo = appended;
+            }
+            // Other callers can append while the file is forced.
+            out.force(false);
+            durable = upTo;
+            forces++;
+            synchronized (this) {
+                if (records >= snapshotInterval) {
+                    compact();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of times commit has forced the file, which is less than
+     *         the number of commits when callers share forces.
+     */
+    public long getForceCount() {
+        return forces;
+    }
+
+    /**
+     * Makes every record appended so far durable.
+     *
+     * @throws IOException the journal can not be written.
+     */
+    public void flush() throws IOException {
+        long sequence;
+        synchronized (this) {
+            sequence = appended;
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Flushes the journal and closes the file.
+     *
+     * @throws IOException the journal can not be written.
+     */
+    public void close() throws IOException {
+        synchronized (commitLock) {
+            flush();
+            synchronized (this) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces the journal with a single snapshot of the stock. The snapshot is
+     * written to a new file that is then moved over the journal, so a crash part
+     * way through leaves the old journal as it was. The directory is forced after
+     * the move, so the new file is still the journal after a crash.
+     *
+     * @throws IOException the journal can not be written.
+     */
+    public void compact() throws IOException {
+        synchronized (commitLock) {
+            synchronized (this) {
+                replaceWithSnapshot();
+                durable = appended;
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot file, moves it over the journal and reopens it. Pending
+     * records are dropped, as the snapshot already counts them. The caller holds
+     * both locks.
+     *
+     * @throws IOException the journal can not be written.
+     */
+    private void replaceWithSnapshot() throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            pending.clear();
+            putRecord(SNAPSHOT, stock);
+            pending.flip();
+            while (pending.hasRemaining()) {
+                out.write(pending);
+            }
+            pending.clear();
+            out.force(false);
+        } finally {
+            out.close();
+        }
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(file.toAbsolutePath().getParent());
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        records = 1;
+    }
+
+    /**
+     * Forces a directory, so a file moved into it survives a crash. Some
+     * platforms can not open a directory as a channel, and there the move is
+     * left to the file system.
+     *
+     * @param directory the directory to force.
+     */
+    private static void forceDirectory(Path directory) {
+        try {
+            FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ);
+            try {
+                dir.force(true);
+            } finally {
+                dir.close();
+            }
+        } catch (IOException e) {
+            // Not supported here.
+        }
+    }
+
+    /**
+     * Adds a record to pending, writing the group to the file, without forcing
+     * it, if it is full. The caller holds the journal's lock.
+     *
+     * @param kind   SNAPSHOT or DELTA.
+     * @param counts the count for each denomination.
+     * @return the sequence number of the record.
+     * @throws IOException the journal can not be written.
+     */
+    private long append(int kind, int[] counts) throws IOException {
+        putRecord(kind, counts);
+        records++;
+        if (!pending.hasRemaining()) {
+            writePending();
+        }
+        return ++appended;
+    }
+
+    /**
+     * Writes every pending record to the file, without forcing it. The caller
+     * holds the journal's lock.
+     *
+     * @throws IOException the journal can not be written.
+     */
+    private void writePending() throws IOException {
+        if (pending.position() == 0) {
+            return;
+        }
+        pending.flip();
+        while (pending.hasRemaining()) {
+            channel.write(pending);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Writes one record into pending, which must have room for it.
+     *
+     * @param kind   SNAPSHOT or DELTA.
+     * @param counts the count for each denomination.
+     */
+    private void putRecord(int kind, int[] counts) {
+        int start = pending.position();
+        pending.putInt(kind);
+        for (int i = 0; i < counts.length; i++) {
+            pending.putInt(counts[i]);
+        }
+        pending.putInt(checksum(pending, start));
+    }
+
+    /**
+     * @param buffer the buffer holding the record.
+     * @param start  the position of the record in the buffer.
+     * @return the checksum of the record, not counting the checksum itself.
+     */
+    private int checksum(ByteBuffer buffer, int start) {
+        crc.reset();
+        for (int i = start; i < start + RECORD_BYTES - 4; i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Rebuilds the stock from the file, and cuts off a torn or corrupt last
+     * record.
+     *
+     * @throws IOException the file can not be read or written, or a corrupt
+     *                     record has more records after it.
+     */
+    private void replay() throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(256 * RECORD_BYTES);
+        long valid = 0;
+        channel.position(0);
+        read: while (true) {
+            int read = channel.read(chunk);
+            chunk.flip();
+            while (chunk.remaining() >= RECORD_BYTES) {
+                int start = chunk.position();
+                int kind = chunk.getInt();
+                if ((kind != SNAPSHOT && kind != DELTA)
+                        || chunk.getInt(start + RECORD_BYTES - 4) != checksum(chunk, start)) {
+                    if (channel.size() - valid > RECORD_BYTES) {
+                        throw new IOException("Journal record " + records + " in " + file
+                                + " is corrupt and has more records after it.");
+                    }
+                    break read;
+                }
+                for (int i = 0; i < stock.length; i++) {
+                    int count = chunk.getInt();
+                    stock[i] = kind == SNAPSHOT ? count : stock[i] + count;
+                }
+                chunk.getInt();
+                valid += RECORD_BYTES;
+                records++;
+            }
+            if (read < 0) {
+                break;
+            }
+            chunk.compact();
+        }
+        if (channel.size() > valid) {
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path file = Files.createTempFile("cash", ".journal");
+        try {
+            CashJournal journal = new CashJournal(file, 4, 100);
+            assert (journal.isEmpty());
+            CashCount supply = new CashCount();
+            supply.setNrCoins_1pound(10);
+            journal.snapshot(supply);
+            int[] sale = new int[CashCount.DENOMINATION_COUNT];
+            sale[CashCount.FIVE_POUND_NOTE] = 1;
+            sale[CashCount.ONE_POUND_COIN] = -1;
+            for (int n = 0; n < 5; n++) {
+                journal.delta(sale);
+            }
+            // Two groups of four have been written, and the last two records are
+            // still pending.
+            assert (Files.size(file) == 4L * RECORD_BYTES);
+            journal.close();
+            assert (Files.size(file) == 6L * RECORD_BYTES);
+
+            // Replay rebuilds the stock, and a torn record at the end is cut off.
+            FileChannel torn = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            torn.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 2, 1, 2 }));
+            torn.close();
+            journal = new CashJournal(file, 4, 100);
+            assert (!journal.isEmpty());
+            assert (journal.getCash().getNrNotes_5pounds() == 5);
+            assert (journal.getCash().getNrCoins_1pound() == 5);
+            assert (Files.size(file) == 6L * RECORD_BYTES);
+
+            // A corrupt last record is cut off like a torn one.
+            journal.delta(sale);
+            journal.flush();
+            FileChannel corrupt = FileChannel.open(file, StandardOpenOption.WRITE);
+            corrupt.write(ByteBuffer.wrap(new byte[] { 9 }), 6L * RECORD_BYTES + 8);
+            corrupt.close();
+            journal.close();
+            journal = new CashJournal(file, 4, 100);
+            assert (journal.getCash().getNrNotes_5pounds() == 5);
+            assert (Files.size(file) == 6L * RECORD_BYTES);
+
+            // A corrupt record with records after it is never cut off.
+            journal.delta(sale);
+            journal.delta(sale);
+            journal.close();
+            ByteBuffer original = ByteBuffer.allocate(1);
+            corrupt = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            corrupt.read(original, 3L * RECORD_BYTES + 8);
+            corrupt.write(ByteBuffer.wrap(new byte[] { (byte) (original.get(0) ^ 1) }), 3L * RECORD_BYTES + 8);
+            try {
+                new CashJournal(file, 4, 100);
+                assert (false);
+            } catch (IOException e) {
+                // Expected.
+            }
+            assert (Files.size(file) == 8L * RECORD_BYTES);
+            original.flip();
+            corrupt.write(original, 3L * RECORD_BYTES + 8);
+            corrupt.close();
+
+            // Gates committing at once share forces, and every committed sale is
+            // replayed.
+            final CashJournal shared = new CashJournal(file, 16, 1000000);
+            assert (shared.getCash().getNrNotes_5pounds() == 7);
+            Thread[] gates = new Thread[4];
+            for (int g = 0; g < gates.length; g++) {
+                gates[g] = new Thread() {
+                    public void run() {
+                        int[] sale = new int[CashCount.DENOMINATION_COUNT];
+                        sale[CashCount.FIVE_POUND_NOTE] = 1;
+                        try {
+                            for (int n = 0; n < 250; n++) {
+                                shared.commit(shared.delta(sale));
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                };
+                gates[g].start();
+            }
+            for (Thread gate : gates) {
+                try {
+                    gate.join();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            // Not closed, as if the machine had crashed.
+            journal = new CashJournal(file, 4, 100);
+            assert (journal.getCash().getNrNotes_5pounds() == 1007);
+            journal.close();
+            shared.close();
+
+            // The journal is replaced by a snapshot once it is long enough.
+            journal = new CashJournal(file, 1, 1008);
+            journal.delta(sale);
+            journal.flush();
+            assert (Files.size(file) == RECORD_BYTES);
+            journal.close();
+            journal = new CashJournal(file, 1, 1008);
+            assert (journal.getCash().getNrNotes_5pounds() == 1008);
+            assert (journal.getCash().getNrCoins_1pound() == 2);
+            journal.close();
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(Paths.get(file + ".compact"));
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package zoo;
+
+import dataStructures.CashCount;
+import dataStructures.ICashCount;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A ticket machine that many gates can sell tickets from at once. The whole
+ * stock is one array that is never changed once published. A sale works out
+ * the change from the current stock, builds the stock it leaves behind and
+ * swaps it in with compare-and-set. If another sale got there first, the sale
+ * starts again from the new stock. Gates never block each other, and readers
+ * such as getCashSupply and other gates only ever see the stock from before or
+ * after a whole sale. A sale is only refused if it can not be made from a stock
+ * the machine really held.
+ *
+ * With a CashJournal, the stock is only swapped while holding the journal's
+ * lock, so the records are in the same order as the sales. Working out the
+ * change and forcing the journal happen outside the lock, and gates that sell
+ * while a force is running share the next one.
+ */
+public class ConcurrentTicketMachine {
+
+    /**
+     * The count of each denomination, indexed in the same order as
+     * Zoo.CASH_VALUES. The array is replaced, never changed.
+     */
+    private final AtomicReference<int[]> stock = new AtomicReference<int[]>(new int[CashCount.DENOMINATION_COUNT]);
+
+    /**
+     * The entrance fee in pence.
+     */
+    private volatile int entranceFeePence;
+
+    /**
+     * Decides which notes and coins to give as change.
+     */
+    private volatile IChangeStrategy changeStrategy = new GreedyChange();
+
+    /**
+     * Records every change to the stock, or null.
+     */
+    private volatile CashJournal journal;
+
+    /**
+     * Sets the entrance fee. All money stored as pence to keep int type.
+     *
+     * @param pounds the number of pounds the entrance fee will be set at.
+     * @param pence  the number of pence the entrance fee will be set at.
+     */
+    public void setEntranceFee(int pounds, int pence) {
+        entranceFeePence = pounds * 100 + pence;
+    }
+
+    /**
+     * Chooses how change is worked out. GreedyChange is the default.
+     *
+     * @param strategy the change strategy to use. Must be safe to call from
+     *                 several threads at once.
+     */
+    public void setChangeStrategy(IChangeStrategy strategy) {
+        changeStrategy = strategy;
+    }
+
+    /**
+     * Stocks the machine. The whole stock is replaced at once, so a sale running
+     * at the same time either happens before it and is overwritten, or starts
+     * again from the new stock.
+     *
+     * @param coins the cash to be stored in the machine.
+     */
+    public void setCashSupply(ICashCount coins) {
+        int[] counts = new int[CashCount.DENOMINATION_COUNT];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = CashCount.countOf(coins, i);
+        }
+        CashJournal log = journal;
+        if (log == null) {
+            stock.set(counts);
+            return;
+        }
+        try {
+            long sequence;
+            synchronized (log) {
+                sequence = log.snapshot(coins);
+                stock.set(counts);
+            }
+            log.commit(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts recording every change to the stock in a journal. If the journal
+     * already has records, the stock is rebuilt from them, as after a crash.
+     * Otherwise the current stock is written as its first record. Call before
+     * the gates start selling.
+     *
+     * @param cashJournal the journal to write to, or null to stop journalling.
+     */
+    public void setCashJournal(CashJournal cashJournal) {
+        journal = cashJournal;
+        if (cashJournal == null) {
+            return;
+        }
+        if (cashJournal.isEmpty()) {
+            setCashSupply(getCashSupply());
+        } else {
+            CashCount recovered = cashJournal.getCash();
+            int[] counts = new int[CashCount.DENOMINATION_COUNT];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = recovered.get(i);
+            }
+            stock.set(counts);
+        }
+    }
+
+    /**
+     * @return a copy of the cash in the machine, as it was between two sales.
+     */
+    public ICashCount getCashSupply() {
+        int[] counts = stock.get();
+        ICashCount cashCount = new CashCount();
+        for (int i = 0; i < counts.length; i++) {
+            CashCount.setCountOf(cashCount, i, counts[i]);
+        }
+        return cashCount;
+    }
+
+    /**
+     * Reads one denomination without copying the whole stock.
+     *
+     * @param index the index of the denomination in Zoo.CASH_VALUES.
+     * @return the number of that denomination in the machine right now.
+     */
+    public int getCount(int index) {
+        return stock.get()[index];
+    }
+
+    /**
+     * @return the entrance fee in pence.
+     */
+    public int getEntranceFeePence() {
+        return entranceFeePence;
+    }
+
+    /**
+     * Pays the entrance fee. Safe to call from many threads at once.
+     *
+     * @param cashInserted the cash inserted into the machine.
+     * @return the change, or cashInserted if it is not enough to pay for the fee
+     *         or the machine cannot give the change.
+     * @throws UncheckedIOException the sale could not be journalled.
+     */
+    public ICashCount payEntranceFee(ICashCount cashInserted) {
+        int[] inserted = new int[CashCount.DENOMINATION_COUNT];
+        int valueInsertedPence = 0;
+        for (int i = 0; i < inserted.length; i++) {
+            inserted[i] = CashCount.countOf(cashInserted, i);
+            valueInsertedPence += inserted[i] * CashCount.penceOf(i);
+        }
+        int feePence = entranceFeePence;
+        if (valueInsertedPence < feePence) {
+            return cashInserted;
+        }
+        IChangeStrategy strategy = changeStrategy;
+        int[] change = new int[inserted.length];
+        while (true) {
+            int[] before = stock.get();
+            // The inserted cash can be given back as change too.
+            int[] after = new int[before.length];
+            for (int i = 0; i < after.length; i++) {
+                after[i] = before[i] + inserted[i];
+            }
+            if (!strategy.makeChange(valueInsertedPence - feePence, after, change)) {
+                // Refused against a stock the machine held at the moment it was
+                // read, so some serial order of the sales refuses it too.
+                return cashInserted;
+            }
+            for (int i = 0; i < after.length; i++) {
+                after[i] -= change[i];
+            }
+            CashJournal log = journal;
+            if (log != null ? swapJournalled(log, before, after) : stock.compareAndSet(before, after)) {
+                ICashCount cashCountChange = new CashCount();
+                for (int i = 0; i < change.length; i++) {
+                    CashCount.setCountOf(cashCountChange, i, change[i]);
+                }
+                return cashCountChange;
+            }
+        }
+    }
+
+    /**
+     * Journals a sale and swaps in the stock it leaves behind, if no other sale
+     * has changed the stock since it was read, then waits for the record to be
+     * durable.
+     *
+     * @param log    the journal.
+     * @param before the stock the sale was worked out from.
+     * @param after  the stock after the sale.
+     * @return true if the stock was swapped.
+     * @throws UncheckedIOException the sale could not be journalled.
+     */
+    private boolean swapJournalled(CashJournal log, int[] before, int[] after) {
+        try {
+            long sequence;
+            synchronized (log) {
+                if (stock.get() != before) {
+                    return false;
+                }
+                int[] deltas = new int[after.length];
+                for (int i = 0; i < deltas.length; i++) {
+                    deltas[i] = after[i] - before[i];
+                }
+                sequence = log.delta(deltas);
+                stock.set(after);
+            }
+            log.commit(sequence);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        // Conservation of cash: whatever the gates do, the machine's stock must
+        // equal the starting stock plus everything kept from the visitors.
+        final ConcurrentTicketMachine machine = new ConcurrentTicketMachine();
+        machine.setChangeStrategy(new OptimalChange());
+        machine.setEntranceFee(3, 70);
+        ICashCount supply = new CashCount();
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            CashCount.setCountOf(supply, i, 20);
+        }
+        machine.setCashSupply(supply);
+        final int gates = 8;
+        final long[][] kept = new long[gates][CashCount.DENOMINATION_COUNT];
+        Thread[] threads = new Thread[gates];
+        for (int g = 0; g < gates; g++) {
+            final int gate = g;
+            threads[g] = new Thread() {
+                public void run() {
+                    Random random = new Random(gate);
+                    for (int n = 0; n < 20000; n++) {
+                        ICashCount inserted = new CashCount();
+                        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                            CashCount.setCountOf(inserted, i, random.nextInt(3) == 0 ? random.nextInt(3) : 0);
+                        }
+                        ICashCount returned = machine.payEntranceFee(inserted);
+                        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                            kept[gate][i] += CashCount.countOf(inserted, i) - CashCount.countOf(returned, i);
+                        }
+                    }
+                }
+            };
+        }
+        // Every sale keeps exactly the fee, so a reader must only ever see a
+        // total that is the starting total plus a whole number of fees.
+        final int startPence = totalPence(supply);
+        final AtomicBoolean selling = new AtomicBoolean(true);
+        Thread reader = new Thread() {
+            public void run() {
+                while (selling.get()) {
+                    int kept = totalPence(machine.getCashSupply()) - startPence;
+                    assert (kept % 370 == 0) : kept;
+                }
+            }
+        };
+        reader.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        selling.set(false);
+        reader.join();
+        ICashCount finalSupply = machine.getCashSupply();
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            long expected = 20;
+            for (int g = 0; g < gates; g++) {
+                expected += kept[g][i];
+            }
+            assert (CashCount.countOf(finalSupply, i) == expected) : i + ": " + CashCount.countOf(finalSupply, i) + " != " + expected;
+            assert (CashCount.countOf(finalSupply, i) >= 0);
+        }
+
+        // A journalled machine can be rebuilt from its journal after a crash.
+        Path journalFile = Files.createTempFile("gates", ".journal");
+        try {
+            CashJournal gateJournal = new CashJournal(journalFile, 64, 1000000);
+            timeJournalled(gateJournal, 4, 2000);
+            // Not closed, as if the machine had crashed.
+            CashJournal restarted = new CashJournal(journalFile, 64, 1000000);
+            assert (restarted.getCash().getNrNotes_5pounds() == 4000 + 2000) : restarted.getCash().getNrNotes_5pounds();
+            restarted.close();
+            gateJournal.close();
+            for (int gateCount = 1; gateCount <= 8; gateCount *= 2) {
+                Files.delete(journalFile);
+                gateJournal = new CashJournal(journalFile, 64, 1000000);
+                long[] journalled = timeJournalled(gateJournal, gateCount, 2000);
+                gateJournal.close();
+                System.out.printf("%d gates: 2000 journalled sales %d ms, %d forces%n", gateCount,
+                        journalled[0] / 1000000, journalled[1]);
+            }
+        } finally {
+            Files.deleteIfExists(journalFile);
+        }
+
+        // Throughput against a plain Zoo behind one global lock.
+        System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            for (int gateCount = 1; gateCount <= 8; gateCount *= 2) {
+                long[] global = timeSales(null, new Zoo(), gateCount);
+                long[] lockFree = timeSales(new ConcurrentTicketMachine(), null, gateCount);
+                System.out.printf("%d gates: global lock %d ms %d KB, ConcurrentTicketMachine %d ms %d KB%n",
+                        gateCount, global[0] / 1000000, global[1] / 1024, lockFree[0] / 1000000, lockFree[1] / 1024);
+            }
+        }
+    }
+
+    /**
+     * Sells tickets from several gates at once through a journalled machine.
+     * Every visitor pays a £3.70 fee with a £5 note.
+     *
+     * @param log   the journal, with nothing in it.
+     * @param gates the number of gate threads.
+     * @param sales the number of sales shared out between the gates.
+     * @return the time taken in nanoseconds, and the number of times the journal
+     *         was forced.
+     * @throws InterruptedException interrupted while waiting for the gates.
+     */
+    private static long[] timeJournalled(CashJournal log, int gates, int sales) throws InterruptedException {
+        final ConcurrentTicketMachine machine = new ConcurrentTicketMachine();
+        machine.setEntranceFee(3, 70);
+        ICashCount supply = new CashCount();
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            CashCount.setCountOf(supply, i, 4000);
+        }
+        machine.setCashSupply(supply);
+        machine.setCashJournal(log);
+        final int perGate = sales / gates;
+        Thread[] workers = new Thread[gates];
+        for (int g = 0; g < gates; g++) {
+            workers[g] = new Thread() {
+                public void run() {
+                    for (int n = 0; n < perGate; n++) {
+                        CashCount fiver = new CashCount();
+                        fiver.setNrNotes_5pounds(1);
+                        assert (machine.payEntranceFee(fiver) != fiver);
+                    }
+                }
+            };
+        }
+        long forces = log.getForceCount();
+        long time = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        time = System.nanoTime() - time;
+        return new long[] { time, log.getForceCount() - forces };
+    }
+
+    /**
+     * @param cash the cash to add up.
+     * @return the value of the cash in pence.
+     */
+    private static int totalPence(ICashCount cash) {
+        int pence = 0;
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            pence += CashCount.countOf(cash, i) * CashCount.penceOf(i);
+        }
+        return pence;
+    }
+
+    /**
+     * Sells tickets from several gates at once. Every visitor pays a £3.70 fee
+     * with a £5 note, and the machine is stocked so it never runs out of change.
+     *
+     * @param machine the machine to sell from, or null to use zoo.
+     * @param zoo     a zoo to sell from behind one global lock, if machine is
+     *                null.
+     * @param gates   the number of gate threads.
+     * @return the time taken in nanoseconds, and the bytes allocated by all the
+     *         gates.
+     * @throws InterruptedException interrupted while waiting for the gates.
+     */
+    private static long[] timeSales(final ConcurrentTicketMachine machine, final Zoo zoo, int gates)
+            throws InterruptedException {
+        final int sales = 400000 / gates;
+        ICashCount supply = new CashCount();
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            CashCount.setCountOf(supply, i, 400000);
+        }
+        if (machine == null) {
+            zoo.setEntranceFee(3, 70);
+            zoo.setCashSupply(supply);
+        } else {
+            machine.setEntranceFee(3, 70);
+            machine.setCashSupply(supply);
+        }
+        final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        final long[] bytes = new long[gates];
+        Thread[] workers = new Thread[gates];
+        for (int g = 0; g < gates; g++) {
+            final int gate = g;
+            workers[g] = new Thread() {
+                public void run() {
+                    long before = mx.getCurrentThreadAllocatedBytes();
+                    for (int n = 0; n < sales; n++) {
+                        CashCount fiver = new CashCount();
+                        fiver.setNrNotes_5pounds(1);
+                        ICashCount change;
+                        if (machine != null) {
+                            change = machine.payEntranceFee(fiver);
+                        } else {
+                            synchronized (zoo) {
+                                change = zoo.payEntranceFee(fiver);
+                            }
+                        }
+                        assert (change != fiver);
+                    }
+                    bytes[gate] = mx.getCurrentThreadAllocatedBytes() - before;
+                }
+            };
+        }
+        long time = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        time = System.nanoTime() - time;
+        long totalBytes = 0;
+        for (long b : bytes) {
+            totalBytes += b;
+        }
+        return new long[] { time, totalBytes };
+    }
+}
@@ -0,0 +1,547 @@
+package zoo;
+
+import animals.Animal;
+import animals.Lion;
+import animals.Seal;
+import animals.Shark;
+import animals.Species;
+import animals.Starfish;
+import animals.Zebra;
+import areas.AnimalHabitat;
+import areas.Aquarium;
+import areas.Area;
+import areas.Enclosure;
+import areas.Entrance;
+import areas.HumanArea;
+import areas.IArea;
+import dataStructures.BitSetIdAllocator;
+import dataStructures.GraphSnapshot;
+import dataStructures.ICashCount;
+import dataStructures.IConnections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe implementation of IZoo, for several keepers working on the zoo
+ * at once.
+ *
+ * Adding, removing and connecting areas share one lock. Animals are admitted
+ * under one of a fixed set of striped locks, picked by habitat, so keepers
+ * working in different habitats rarely wait for each other and capacity and
+ * compatibility are always checked and updated together. Habitats swap in a new
+ * animal list instead of changing the old one, and areas swap in a new adjacency
+ * array, so getArea, isPathAllowed and visit take no locks. Tickets are sold
+ * through a ConcurrentTicketMachine.
+ */
+public class ConcurrentZoo implements IZoo {
+
+    /**
+     * The number of admission locks. A power of two so a habitat's lock can be
+     * picked with a mask.
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * The areas in the zoo, keyed by areaId.
+     */
+    private final ConcurrentHashMap<Integer, IArea> areas = new ConcurrentHashMap<Integer, IArea>();
+
+    /**
+     * Maps each area back to its areaId to reject duplicates. Guarded by
+     * structureLock.
+     */
+    private final IdentityHashMap<IArea, Integer> areaIds = new IdentityHashMap<IArea, Integer>();
+
+    /**
+     * Hands out areaIds. Guarded by structureLock.
+     */
+    private final BitSetIdAllocator allocator = new BitSetIdAllocator(1);
+
+    /**
+     * Held while areas are added, removed or connected.
+     */
+    private final Object structureLock = new Object();
+
+    /**
+     * Held while an animal is admitted to a habitat that maps to it.
+     */
+    private final Object[] admissionLocks = new Object[STRIPES];
+
+    /**
+     * The ticket machine. Safe for many gates to sell tickets from at once.
+     */
+    private final ConcurrentTicketMachine ticketMachine = new ConcurrentTicketMachine();
+
+    /**
+     * Reads connections from areas without locking.
+     */
+    private final IConnections connections = new IConnections() {
+        public boolean hasConnection(int fromAreaId, int toAreaId) {
+            IArea area = areas.get(fromAreaId);
+            return area != null && Area.isAdjacent(area, toAreaId);
+        }
+    };
+
+    /**
+     * ConcurrentZoo constructor. Like Zoo, every zoo is created with an entrance.
+     */
+    public ConcurrentZoo() {
+        for (int i = 0; i < STRIPES; i++) {
+            admissionLocks[i] = new Object();
+        }
+        addArea(new Entrance());
+    }
+
+    /**
+     * Adds an area. An entrance always gets areaId 0; other areas get the lowest
+     * free areaId from 1.
+     *
+     * @param area the area to be stored.
+     * @return the areaId of the area.
+     * @throws IllegalArgumentException the area is already in the zoo.
+     */
+    public int addArea(IArea area) {
+        synchronized (structureLock) {
+            if (areaIds.containsKey(area)) {
+                throw new IllegalArgumentException("You cannot add an already existing area!");
+            }
+            int areaId = area instanceof Entrance ? 0 : allocator.nextFreeId();
+            IArea old = areas.put(areaId, area);
+            if (old != null) {
+                areaIds.remove(old);
+            }
+            areaIds.put(area, areaId);
+            allocator.claim(areaId);
+            return areaId;
+        }
+    }
+
+    /**
+     * Removes an area.
+     *
+     * @param areaId the area to be removed.
+     * @throws IllegalArgumentException the entrance cannot be removed from the zoo.
+     */
+    public void removeArea(int areaId) {
+        synchronized (structureLock) {
+            IArea area = areas.get(areaId);
+            if (area instanceof Entrance) {
+                throw new IllegalArgumentException("You cannot remove the entrance!");
+            }
+            if (area != null) {
+                areas.remove(areaId);
+                areaIds.remove(area);
+                allocator.release(areaId);
+            }
+        }
+    }
+
+    /**
+     * Takes no locks.
+     *
+     * @param areaId the areaId of an area.
+     * @return the area, or null if there is none.
+     */
+    public IArea getArea(int areaId) {
+        return areas.get(areaId);
+    }
+
+    /**
+     * Attempts to add an animal to an area. The capacity and compatibility checks
+     * and the update are done under the habitat's admission lock, so concurrent
+     * calls cannot overfill a habitat or mix incompatible animals.
+     *
+     * @param areaId the areaId of the area the animal is being placed in.
+     * @param animal the animal being placed.
+     * @return a byte specifying the outcome. See Codes.java for byte
+     *         descriptions.
+     */
+    public byte addAnimal(int areaId, Animal animal) {
+        IArea area = areas.get(areaId);
+        if (area == null || area instanceof HumanArea) {
+            return Codes.NOT_A_HABITAT;
+        } else if (!animal.habitat().isInstance(area)) {
+            return Codes.WRONG_HABITAT;
+        }
+        AnimalHabitat habitat = (AnimalHabitat) area;
+        synchronized (admissionLocks[System.identityHashCode(habitat) & (STRIPES - 1)]) {
+            if (habitat.isHabitatFull()) {
+                return Codes.HABITAT_FULL;
+            } else if (!habitat.isCompatibleWithAnimals(animal)) {
+                return Codes.INCOMPATIBLE_INHABITANTS;
+            }
+            // Readers may be walking the old list, so a new one is swapped in.
+            habitat.addAnimalCopyOnWrite(animal);
+            return Codes.ANIMAL_ADDED;
+        }
+    }
+
+    /**
+     * Attempts to add a batch of animals to one area, giving the same codes as
+     * calling addAnimal for each in turn. The habitat's lock is taken once and its
+     * animal list is copied once for the whole batch.
+     *
+     * @param areaId  the areaId of the area the animals are being placed in.
+     * @param animals the animals, in the order they are attempted.
+     * @return the addAnimal code for each animal, in the same order.
+     */
+    public byte[] addAnimals(int areaId, List<Animal> animals) {
+        byte[] results = new byte[animals.size()];
+        IArea area = areas.get(areaId);
+        if (area == null || area instanceof HumanArea) {
+            Arrays.fill(results, Codes.NOT_A_HABITAT);
+            return results;
+        }
+        AnimalHabitat habitat = (AnimalHabitat) area;
+        synchronized (admissionLocks[System.identityHashCode(habitat) & (STRIPES - 1)]) {
+            // The batch so far is checked through a running size and species mask.
+            int size = habitat.getAnimals().size();
+            long speciesMask = habitat.getSpeciesMask();
+            ArrayList<Animal> admitted = new ArrayList<Animal>(results.length);
+            for (int i = 0; i < results.length; i++) {
+                Animal animal = animals.get(i);
+                int species = animal.getSpecies();
+                if (!animal.habitat().isInstance(area)) {
+                    results[i] = Codes.WRONG_HABITAT;
+                } else if (size >= habitat.getCapacity()) {
+                    results[i] = Codes.HABITAT_FULL;
+                } else if ((speciesMask & ~Species.compatibleMask(species)) != 0) {
+                    results[i] = Codes.INCOMPATIBLE_INHABITANTS;
+                } else {
+                    admitted.add(animal);
+                    size++;
+                    speciesMask |= 1L << species;
+                    results[i] = Codes.ANIMAL_ADDED;
+                }
+            }
+            if (!admitted.isEmpty()) {
+                habitat.addAnimalsCopyOnWrite(admitted);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Connects one area to another, one way.
+     *
+     * @param fromAreaId the area the connection starts from.
+     * @param toAreaId   the area the connection goes to.
+     * @throws IllegalArgumentException one or both of the areas do not exist.
+     */
+    public void connectAreas(int fromAreaId, int toAreaId) {
+        synchronized (structureLock) {
+            IArea from = areas.get(fromAreaId);
+            if (from == null || !areas.containsKey(toAreaId)) {
+                throw new IllegalArgumentException("At least one argument does not exist in areas.");
+            }
+            from.addAdjacentArea(toAreaId);
+        }
+    }
+
+    /**
+     * Takes no locks.
+     *
+     * @param areaIds the areaIds of the path, in order.
+     * @return true if each area in the path connects to the next one.
+     */
+    public boolean isPathAllowed(ArrayList<Integer> areaIds) {
+        int[] path = toAreaIdArray(areaIds);
+        return PathValidator.isPathAllowed(connections, path, 0, path.length);
+    }
+
+    /**
+     * Takes no locks. Each habitat's animals are read as they were when the walk
+     * reached it.
+     *
+     * @param areaIdsVisited the areaIds of the path, in order.
+     * @return the nicknames of the animals seen, or null if the path is not
+     *         allowed.
+     */
+    public ArrayList<String> visit(ArrayList<Integer> areaIdsVisited) {
+        int[] path = toAreaIdArray(areaIdsVisited);
+        if (path.length == 0) {
+            return null;
+        }
+        ArrayList<String> names = new ArrayList<String>();
+        for (int i = 0; i < path.length; i++) {
+            IArea area = areas.get(path[i]);
+            if (i < path.length - 1 && (area == null || !Area.isAdjacent(area, path[i + 1]))) {
+                return null;
+            }
+            if (area instanceof AnimalHabitat) {
+                ArrayList<Animal> animals = ((AnimalHabitat) area).getAnimals();
+                for (int j = 0; j < animals.size(); j++) {
+                    names.add(animals.get(j).getNickname());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Searches a snapshot of the connections taken under the structure lock.
+     *
+     * @return the areaIds that cannot be reached from the entrance, in ascending
+     *         order.
+     */
+    public ArrayList<Integer> findUnreachableAreas() {
+        GraphSnapshot snapshot;
+        synchronized (structureLock) {
+            snapshot = new GraphSnapshot(areas);
+        }
+        BitSet reached = new ParallelReachability(snapshot).reach(0, ForkJoinPool.commonPool());
+        ArrayList<Integer> unreachableAreas = new ArrayList<Integer>();
+        for (int areaId = 0; areaId < snapshot.idBound(); areaId++) {
+            if (snapshot.hasArea(areaId) && !reached.get(areaId)) {
+                unreachableAreas.add(areaId);
+            }
+        }
+        return unreachableAreas;
+    }
+
+    /**
+     * @param pounds the pounds part of the entrance fee.
+     * @param pence  the pence part of the entrance fee.
+     */
+    public void setEntranceFee(int pounds, int pence) {
+        ticketMachine.setEntranceFee(pounds, pence);
+    }
+
+    /**
+     * @param coins the cash to stock the machine with.
+     */
+    public void setCashSupply(ICashCount coins) {
+        ticketMachine.setCashSupply(coins);
+    }
+
+    /**
+     * Journals every change to the cash in the machine. See
+     * ConcurrentTicketMachine.setCashJournal.
+     *
+     * @param cashJournal the journal to write to, or null to stop journalling.
+     */
+    public void setCashJournal(CashJournal cashJournal) {
+        ticketMachine.setCashJournal(cashJournal);
+    }
+
+    /**
+     * @return a copy of the cash in the machine.
+     */
+    public ICashCount getCashSupply() {
+        return ticketMachine.getCashSupply();
+    }
+
+    /**
+     * @param cashInserted the cash inserted by the visitor.
+     * @return the change, or cashInserted if the fee cannot be paid.
+     */
+    public ICashCount payEntranceFee(ICashCount cashInserted) {
+        return ticketMachine.payEntranceFee(cashInserted);
+    }
+
+    /**
+     * @param areaIds the ArrayList of areaIds.
+     * @return the same areaIds as an array.
+     */
+    private static int[] toAreaIdArray(ArrayList<Integer> areaIds) {
+        int[] path = new int[areaIds.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = areaIds.get(i);
+        }
+        return path;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // Stress test: keepers admit animals to the same habitats at once.
+        final ConcurrentZoo zoo = new ConcurrentZoo();
+        final int enclosureId = zoo.addArea(new Enclosure(50));
+        final int aquariumId = zoo.addArea(new Aquarium(50));
+        zoo.connectAreas(0, enclosureId);
+        zoo.connectAreas(enclosureId, aquariumId);
+        final AtomicInteger added = new AtomicInteger();
+        Thread[] keepers = new Thread[8];
+        for (int t = 0; t < keepers.length; t++) {
+            final int keeper = t;
+            keepers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        Animal animal;
+                        int areaId;
+                        switch ((keeper + i) % 4) {
+                        case 0:
+                            animal = new Zebra("Zebra" + i);
+                            areaId = enclosureId;
+                            break;
+                        case 1:
+                            animal = new Lion("Lion" + i);
+                            areaId = enclosureId;
+                            break;
+                        case 2:
+                            animal = new Seal("Seal" + i);
+                            areaId = aquariumId;
+                            break;
+                        default:
+                            animal = (i & 1) == 0 ? new Shark("Shark" + i) : new Starfish("Star" + i);
+                            areaId = aquariumId;
+                        }
+                        if (zoo.addAnimal(areaId, animal) == Codes.ANIMAL_ADDED) {
+                            added.incrementAndGet();
+                        }
+                    }
+                }
+            };
+        }
+        // A visitor walks the zoo the whole time.
+        Thread visitor = new Thread() {
+            public void run() {
+                ArrayList<Integer> path = new ArrayList<Integer>();
+                path.add(0);
+                path.add(enclosureId);
+                path.add(aquariumId);
+                for (int i = 0; i < 1000; i++) {
+                    assert (zoo.visit(path) != null);
+                }
+            }
+        };
+        for (Thread keeper : keepers) {
+            keeper.start();
+        }
+        visitor.start();
+        for (Thread keeper : keepers) {
+            keeper.join();
+        }
+        visitor.join();
+
+        AnimalHabitat enclosure = (AnimalHabitat) zoo.getArea(enclosureId);
+        AnimalHabitat aquarium = (AnimalHabitat) zoo.getArea(aquariumId);
+        assert (enclosure.getAnimals().size() == 50) : enclosure.getAnimals().size();
+        assert (aquarium.getAnimals().size() == 50) : aquarium.getAnimals().size();
+        assert (added.get() == 100) : added.get();
+        for (AnimalHabitat habitat : new AnimalHabitat[] { enclosure, aquarium }) {
+            ArrayList<Animal> animals = habitat.getAnimals();
+            for (Animal a : animals) {
+                for (Animal b : animals) {
+                    assert (a.isCompatibleWith(b));
+                }
+            }
+        }
+        assert (zoo.findUnreachableAreas().isEmpty());
+
+        // A batch gets the same codes as adding each animal in turn.
+        int batchId = zoo.addArea(new Enclosure(3));
+        ArrayList<Animal> batch = new ArrayList<Animal>();
+        batch.add(new Zebra("Batch1"));
+        batch.add(new Lion("Batch2"));
+        batch.add(new Seal("Batch3"));
+        batch.add(new Zebra("Batch4"));
+        batch.add(new Zebra("Batch5"));
+        batch.add(new Zebra("Batch6"));
+        byte[] codes = zoo.addAnimals(batchId, batch);
+        assert (codes[0] == Codes.ANIMAL_ADDED && codes[1] == Codes.INCOMPATIBLE_INHABITANTS);
+        assert (codes[2] == Codes.WRONG_HABITAT && codes[3] == Codes.ANIMAL_ADDED);
+        assert (codes[4] == Codes.ANIMAL_ADDED && codes[5] == Codes.HABITAT_FULL);
+        AnimalHabitat batchHabitat = (AnimalHabitat) zoo.getArea(batchId);
+        assert (batchHabitat.getAnimals().size() == 3);
+        assert (batchHabitat.getSpeciesCount(batch.get(0).getSpecies()) == 3);
+        assert (zoo.addAnimals(0, batch)[0] == Codes.NOT_A_HABITAT);
+
+        // Throughput against a plain Zoo behind one global lock.
+        System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            for (int threads = 1; threads <= 8; threads *= 2) {
+                long[] global = timeMix(new Zoo(), new Object(), threads);
+                long[] striped = timeMix(new ConcurrentZoo(), null, threads);
+                System.out.printf("%d threads: global lock %d ms %d KB, ConcurrentZoo %d ms %d KB%n", threads,
+                        global[0] / 1000000, global[1] / 1024, striped[0] / 1000000, striped[1] / 1024);
+            }
+        }
+    }
+
+    /**
+     * Runs a keeper and visitor workload on a zoo, shared out between several
+     * threads. Eight habitats of 20 zebras lie along one path. Each thread mostly
+     * walks the path, and every tenth operation admits a zebra to one of eight
+     * other habitats, taking them in turn. Those habitats are off the path, so
+     * visits stay the same length, and have room for every zebra, so every
+     * admission really adds an animal.
+     *
+     * @param zoo     the zoo, with only an entrance.
+     * @param lock    held around every call to the zoo, or null to call it
+     *                directly.
+     * @param threads the number of threads.
+     * @return the time taken in nanoseconds, and the bytes allocated by all the
+     *         threads.
+     * @throws InterruptedException interrupted while waiting for the threads.
+     */
+    private static long[] timeMix(final IZoo zoo, final Object lock, int threads) throws InterruptedException {
+        final int operations = 200000 / threads;
+        final ArrayList<Integer> path = new ArrayList<Integer>();
+        path.add(0);
+        final int[] habitatIds = new int[8];
+        final int[] keeperIds = new int[habitatIds.length];
+        for (int h = 0; h < habitatIds.length; h++) {
+            habitatIds[h] = zoo.addArea(new Enclosure(20));
+            zoo.connectAreas(path.get(path.size() - 1), habitatIds[h]);
+            path.add(habitatIds[h]);
+            for (int i = 0; i < 20; i++) {
+                zoo.addAnimal(habitatIds[h], new Zebra("Zebra" + i));
+            }
+            keeperIds[h] = zoo.addArea(new Enclosure(threads * (operations / 10 / keeperIds.length + 2)));
+            zoo.connectAreas(0, keeperIds[h]);
+        }
+        final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        final long[] bytes = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int worker = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    long before = mx.getCurrentThreadAllocatedBytes();
+                    for (int i = 0; i < operations; i++) {
+                        if (i % 10 == 0) {
+                            Zebra zebra = new Zebra("Keeper" + i);
+                            int keeperId = keeperIds[(worker + i / 10) % keeperIds.length];
+                            byte code;
+                            if (lock == null) {
+                                code = zoo.addAnimal(keeperId, zebra);
+                            } else {
+                                synchronized (lock) {
+                                    code = zoo.addAnimal(keeperId, zebra);
+                                }
+                            }
+                            assert (code == Codes.ANIMAL_ADDED) : code;
+                        } else if (lock == null) {
+                            zoo.visit(path);
+                        } else {
+                            synchronized (lock) {
+                                zoo.visit(path);
+                            }
+                        }
+                    }
+                    bytes[worker] = mx.getCurrentThreadAllocatedBytes() - before;
+                }
+            };
+        }
+        long time = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        time = System.nanoTime() - time;
+        long totalBytes = 0;
+        for (long b : bytes) {
+            totalBytes += b;
+        }
+        return new long[] { time, totalBytes };
+    }
+}
@@ -0,0 +1,29 @@
+package zoo;
+
+import dataStructures.CashCount;
+
+/**
+ * The original change strategy. Goes in order from largest to smallest
+ * denominations, taking as many of each as it can. Fast, but can fail when the
+ * change could still be made, e.g. 60p from one 50p and three 20p coins.
+ */
+public class GreedyChange implements IChangeStrategy {
+
+    /**
+     * @param changePence the change to give, in pence.
+     * @param stock       the count of each denomination that can be given.
+     * @param change      filled in with the count of each denomination to give.
+     * @return true if the change can be given from stock. False if changePence
+     *         is negative.
+     */
+    public boolean makeChange(int changePence, int[] stock, int[] change) {
+        if (changePence < 0) {
+            return false;
+        }
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            change[i] = Math.min(changePence / CashCount.penceOf(i), stock[i]);
+            changePence -= change[i] * CashCount.penceOf(i);
+        }
+        return changePence == 0;
+    }
+}
@@ -0,0 +1,19 @@
+package zoo;
+
+/**
+ * Decides which notes and coins to give as change. Counts are indexed in the same
+ * order as Zoo.CASH_VALUES. Implementations must be safe to call from several
+ * threads at once, as a ConcurrentTicketMachine may share one between gates.
+ */
+public interface IChangeStrategy {
+
+    /**
+     * @param changePence the change to give, in pence.
+     * @param stock       the count of each denomination that can be given. Not
+     *                    modified.
+     * @param change      filled in with the count of each denomination to give.
+     *                    Undefined if false is returned.
+     * @return true if the change can be given from stock.
+     */
+    public boolean makeChange(int changePence, int[] stock, int[] change);
+}
@@ -0,0 +1,659 @@
+package zoo;
+
+import areas.Aquarium;
+import areas.Area;
+import areas.Cage;
+import areas.Enclosure;
+import areas.Entrance;
+import areas.IArea;
+import areas.PicnicArea;
+import dataStructures.AreaRegistry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Reads a zoo layout from a text file and adds it to a zoo's areas in bulk. Each
+ * line of the file is one of:
+ *
+ * <pre>
+ * area &lt;areaId&gt; &lt;Entrance|PicnicArea|Enclosure|Cage|Aquarium&gt; [capacity]
+ * edge &lt;fromAreaId&gt; &lt;toAreaId&gt;
+ * # a comment
+ * </pre>
+ *
+ * Animal habitats need a capacity. An edge is a one way connection, as in
+ * connectAreas, and may name areas already in the zoo. The only Entrance allowed
+ * is areaId 0, which every zoo already has, and it may be listed at most once.
+ * An areaId must be below AreaRegistry.spareIdLimit for the areaIds already in
+ * use and the size of the file, since the zoo keeps an array as long as its
+ * largest areaId.
+ *
+ * The file is read in chunks and parsed as bytes, so no String is made per
+ * line. Edges are packed into longs, sorted and deduplicated, and each area's
+ * adjacent areaIds are then installed with one setAdjacentAreaIds call instead
+ * of a lookup and a search per connection. Everything is checked before the zoo
+ * is changed, so a file with a mistake in it changes nothing.
+ *
+ * writeMapped turns a layout straight into a file MappedZoo reads, walking the
+ * sorted edges once, so a layout too big to hold as Area objects never has to
+ * be.
+ */
+public class LayoutImporter {
+
+    /**
+     * The size of each chunk read from the file.
+     */
+    private static final int CHUNK_BYTES = 1 << 16;
+
+    /**
+     * A rough guess at the bytes per line, used to size the arrays up front.
+     */
+    private static final int BYTES_PER_LINE_GUESS = 12;
+
+    /**
+     * The most edges made room for up front, so a huge file does not ask for a
+     * huge array before anything has been read.
+     */
+    private static final int MAX_PRESIZED_EDGES = 1 << 22;
+
+    /**
+     * The area types, in the order their codes are given.
+     */
+    private static final String[] TYPE_NAMES = { "Entrance", "PicnicArea", "Enclosure", "Cage", "Aquarium" };
+    private static final int ENTRANCE = 0;
+    private static final int PICNIC_AREA = 1;
+    private static final int ENCLOSURE = 2;
+    private static final int CAGE = 3;
+    private static final int AQUARIUM = 4;
+
+    /**
+     * The areas the layout is added to, or null if the layout is a whole zoo of
+     * its own that only has an entrance to start with.
+     */
+    private final AreaRegistry areas;
+
+    /**
+     * The areas read so far: their areaIds, type codes and capacities.
+     */
+    private int[] areaIds = new int[16];
+    private int[] areaTypes = new int[16];
+    private int[] capacities = new int[16];
+    private int areaCount;
+
+    /**
+     * The edges read so far, each packed as fromAreaId in the high half and
+     * toAreaId in the low half, so sorting groups them by fromAreaId.
+     */
+    private long[] edges = new long[16];
+    private int edgeCount;
+
+    /**
+     * One more than the largest areaId in use before the layout was read.
+     */
+    private int existingIdBound;
+
+    /**
+     * The first areaId the file may not use, from its size.
+     */
+    private long idLimit;
+
+    /**
+     * The line being parsed, for error messages.
+     */
+    private long lineNumber;
+
+    /**
+     * Where the last token parsed ended.
+     */
+    private int tokenEnd;
+
+    /**
+     * LayoutImporter constructor.
+     *
+     * @param areas the areas the layout is added to.
+     */
+    public LayoutImporter(AreaRegistry areas) {
+        this.areas = areas;
+    }
+
+    /**
+     * Reads a layout file and adds it to the areas.
+     *
+     * @param file the layout file.
+     * @return the number of different edges in the file.
+     * @throws IOException the file can not be read or has a mistake in it.
+     */
+    public int importFile(Path file) throws IOException {
+        read(file);
+        sortEdges();
+        check();
+        install();
+        return edgeCount;
+    }
+
+    /**
+     * Reads a layout file that describes a whole zoo and writes it as a file
+     * MappedZoo reads, without making any Area objects. As with importFile, area
+     * 0 is the entrance whether or not the file lists it, and every edge must
+     * join areas in the file. Capacities are checked but not written, as a
+     * MappedZoo does not keep them.
+     *
+     * @param file       the layout file.
+     * @param mappedFile the file to write. Replaced if it exists.
+     * @return the number of different edges in the file.
+     * @throws IOException either file can not be read or written, or the layout
+     *                     has a mistake in it.
+     */
+    public static int writeMapped(Path file, Path mappedFile) throws IOException {
+        LayoutImporter importer = new LayoutImporter(null);
+        importer.read(file);
+        importer.sortEdges();
+        importer.check();
+        importer.writeMapped(mappedFile);
+        return importer.edgeCount;
+    }
+
+    /**
+     * Parses the file a chunk at a time. A line cut off at the end of a chunk is
+     * moved to the start of the buffer and finished with the next chunk.
+     *
+     * @param file the layout file.
+     * @throws IOException the file can not be read or has a mistake in it.
+     */
+    private void read(Path file) throws IOException {
+        existingIdBound = areas == null ? 1 : Math.max(areas.getAreaIdSet().length(), 1);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            idLimit = AreaRegistry.spareIdLimit(existingIdBound, channel.size());
+            long lineGuess = Math.min(channel.size() / BYTES_PER_LINE_GUESS + 16, MAX_PRESIZED_EDGES);
+            edges = new long[(int) lineGuess];
+            byte[] buffer = new byte[CHUNK_BYTES];
+            int filled = 0;
+            boolean end = false;
+            while (!end) {
+                if (filled == buffer.length) {
+                    // A line longer than the buffer.
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int read = channel.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled));
+                if (read < 0) {
+                    end = true;
+                } else {
+                    filled += read;
+                }
+                int lineStart = 0;
+                for (int i = 0; i < filled; i++) {
+                    if (buffer[i] == '\n') {
+                        parseLine(buffer, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                if (end && lineStart < filled) {
+                    parseLine(buffer, lineStart, filled);
+                    lineStart = filled;
+                }
+                System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+                filled -= lineStart;
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Parses one line.
+     *
+     * @param line  the buffer holding the line.
+     * @param start the index where the line starts.
+     * @param end   the index just after the line, not counting the newline.
+     * @throws IOException the line has a mistake in it.
+     */
+    private void parseLine(byte[] line, int start, int end) throws IOException {
+        lineNumber++;
+        if (end > start && line[end - 1] == '\r') {
+            end--;
+        }
+        start = skipSpaces(line, start, end);
+        if (start == end || line[start] == '#') {
+            return;
+        }
+        int keywordEnd = tokenEnd(line, start, end);
+        if (matches(line, start, keywordEnd, "edge")) {
+            int fromAreaId = parseNumber(line, keywordEnd, end);
+            int toAreaId = parseNumber(line, tokenEnd, end);
+            expectEnd(line, tokenEnd, end);
+            if (edgeCount == edges.length) {
+                edges = Arrays.copyOf(edges, edges.length * 2);
+            }
+            edges[edgeCount++] = ((long) fromAreaId << 32) | toAreaId;
+        } else if (matches(line, start, keywordEnd, "area")) {
+            int areaId = parseNumber(line, keywordEnd, end);
+            if (areaId >= idLimit) {
+                throw mistake("areaId " + areaId + " is too far past the areaIds in use");
+            }
+            int typeStart = skipSpaces(line, tokenEnd, end);
+            int typeEnd = tokenEnd(line, typeStart, end);
+            int type = -1;
+            for (int t = 0; t < TYPE_NAMES.length; t++) {
+                if (matches(line, typeStart, typeEnd, TYPE_NAMES[t])) {
+                    type = t;
+                }
+            }
+            if (type < 0) {
+                throw mistake("unknown area type "
+                        + new String(line, typeStart, typeEnd - typeStart, StandardCharsets.UTF_8));
+            }
+            int capacity = 0;
+            if (type == ENCLOSURE || type == CAGE || type == AQUARIUM) {
+                capacity = parseNumber(line, typeEnd, end);
+                typeEnd = tokenEnd;
+            }
+            expectEnd(line, typeEnd, end);
+            if (areaCount == areaIds.length) {
+                areaIds = Arrays.copyOf(areaIds, areaCount * 2);
+                areaTypes = Arrays.copyOf(areaTypes, areaCount * 2);
+                capacities = Arrays.copyOf(capacities, areaCount * 2);
+            }
+            areaIds[areaCount] = areaId;
+            areaTypes[areaCount] = type;
+            capacities[areaCount++] = capacity;
+        } else {
+            throw mistake("expected area or edge");
+        }
+    }
+
+    /**
+     * Sorts the edges and removes duplicates. Edges are first bucketed by
+     * fromAreaId with a counting sort, which is linear in the number of edges,
+     * and then each area's few edges are sorted on their own. Falls back to
+     * sorting the whole array if an edge starts past every areaId, which check
+     * then rejects.
+     */
+    private void sortEdges() {
+        int idBound = existingIdBound;
+        for (int i = 0; i < areaCount; i++) {
+            idBound = Math.max(idBound, areaIds[i] + 1);
+        }
+        int fromBound = 0;
+        for (int i = 0; i < edgeCount; i++) {
+            fromBound = Math.max(fromBound, (int) (edges[i] >>> 32) + 1);
+        }
+        if (fromBound > idBound) {
+            Arrays.sort(edges, 0, edgeCount);
+            edgeCount = dedupe(edges, 0, edgeCount, 0);
+            return;
+        }
+        int[] rowStart = new int[fromBound + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            rowStart[(int) (edges[i] >>> 32) + 1]++;
+        }
+        for (int r = 0; r < fromBound; r++) {
+            rowStart[r + 1] += rowStart[r];
+        }
+        long[] sorted = new long[Math.max(edgeCount, 16)];
+        int[] next = Arrays.copyOf(rowStart, fromBound);
+        for (int i = 0; i < edgeCount; i++) {
+            sorted[next[(int) (edges[i] >>> 32)]++] = edges[i];
+        }
+        int unique = 0;
+        for (int r = 0; r < fromBound; r++) {
+            Arrays.sort(sorted, rowStart[r], rowStart[r + 1]);
+            unique = dedupe(sorted, rowStart[r], rowStart[r + 1], unique);
+        }
+        edges = sorted;
+        edgeCount = unique;
+    }
+
+    /**
+     * Copies a sorted run of edges down to unique, leaving out repeats.
+     *
+     * @param edges  the edges.
+     * @param start  the index of the first edge in the run.
+     * @param end    the index just after the run.
+     * @param unique where the first edge of the run is copied to. No more than
+     *               start.
+     * @return the index just after the last edge copied.
+     */
+    private static int dedupe(long[] edges, int start, int end, int unique) {
+        int first = unique;
+        for (int i = start; i < end; i++) {
+            if (unique == first || edges[unique - 1] != edges[i]) {
+                edges[unique++] = edges[i];
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Checks that the areas are new and every edge joins areas that exist.
+     *
+     * @throws IOException the layout has a mistake in it.
+     */
+    private void check() throws IOException {
+        BitSet added = new BitSet();
+        for (int i = 0; i < areaCount; i++) {
+            int areaId = areaIds[i];
+            if ((areaId == 0) != (areaTypes[i] == ENTRANCE)) {
+                throw new IOException("Area " + areaId + ": the entrance, and only the entrance, has areaId 0.");
+            }
+            if (added.get(areaId) || (areaId != 0 && exists(areaId))) {
+                throw new IOException("Area " + areaId + " already exists.");
+            }
+            added.set(areaId);
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            int fromAreaId = (int) (edges[i] >>> 32);
+            int toAreaId = (int) edges[i];
+            if (!added.get(fromAreaId) && !exists(fromAreaId)) {
+                throw new IOException("Edge " + fromAreaId + " " + toAreaId + ": area " + fromAreaId
+                        + " does not exist.");
+            }
+            if (!added.get(toAreaId) && !exists(toAreaId)) {
+                throw new IOException("Edge " + fromAreaId + " " + toAreaId + ": area " + toAreaId
+                        + " does not exist.");
+            }
+        }
+    }
+
+    /**
+     * @param areaId an areaId.
+     * @return true if there was an area with that areaId before the layout was
+     *         read.
+     */
+    private boolean exists(int areaId) {
+        return areas == null ? areaId == 0 : areas.getArea(areaId) != null;
+    }
+
+    /**
+     * Writes the areas in ascending areaId order, each followed by its edges,
+     * which are already sorted the same way.
+     *
+     * @param mappedFile the file to write.
+     * @throws IOException the file can not be written.
+     */
+    private void writeMapped(Path mappedFile) throws IOException {
+        // Each area's areaId in the high half and its index in the low half.
+        long[] order = new long[areaCount];
+        int idBound = 1;
+        for (int i = 0; i < areaCount; i++) {
+            order[i] = ((long) areaIds[i] << 32) | i;
+            idBound = Math.max(idBound, areaIds[i] + 1);
+        }
+        Arrays.sort(order);
+        MappedZoo.Writer writer = new MappedZoo.Writer(mappedFile, idBound);
+        try {
+            int edge = 0;
+            if (areaCount == 0 || order[0] >>> 32 != 0) {
+                edge = writeMappedArea(writer, 0, ENTRANCE, edge);
+            }
+            for (int i = 0; i < areaCount; i++) {
+                int index = (int) order[i];
+                edge = writeMappedArea(writer, areaIds[index], areaTypes[index], edge);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @param writer the mapped zoo being written.
+     * @param areaId the areaId of the area.
+     * @param type   the type code of the area.
+     * @param edge   the index of the first edge not yet written.
+     * @return the index of the first edge from a later area.
+     * @throws IOException the file can not be written.
+     */
+    private int writeMappedArea(MappedZoo.Writer writer, int areaId, int type, int edge) throws IOException {
+        boolean habitat = type == ENCLOSURE || type == CAGE || type == AQUARIUM;
+        writer.area(areaId, habitat ? MappedZoo.ANIMAL_HABITAT : MappedZoo.HUMAN_AREA);
+        while (edge < edgeCount && (int) (edges[edge] >>> 32) == areaId) {
+            writer.edge((int) edges[edge]);
+            edge++;
+        }
+        return edge;
+    }
+
+    /**
+     * Adds the areas, then gives each area its new adjacent areaIds at once.
+     */
+    private void install() {
+        int idBound = 0;
+        for (int i = 0; i < areaCount; i++) {
+            idBound = Math.max(idBound, areaIds[i] + 1);
+        }
+        areas.ensureCapacity(idBound);
+        for (int i = 0; i < areaCount; i++) {
+            if (areaTypes[i] != ENTRANCE) {
+                areas.putArea(areaIds[i], createArea(areaTypes[i], capacities[i]));
+            }
+        }
+        for (int start = 0; start < edgeCount;) {
+            int fromAreaId = (int) (edges[start] >>> 32);
+            int end = start;
+            while (end < edgeCount && (int) (edges[end] >>> 32) == fromAreaId) {
+                end++;
+            }
+            int[] toAreaIds = new int[end - start];
+            for (int i = start; i < end; i++) {
+                toAreaIds[i - start] = (int) edges[i];
+            }
+            IArea from = areas.getArea(fromAreaId);
+            if (from instanceof Area) {
+                Area area = (Area) from;
+                area.setAdjacentAreaIds(merge(area.getAdjacentAreaIds(), toAreaIds));
+            } else {
+                for (int toAreaId : toAreaIds) {
+                    if (!Area.isAdjacent(from, toAreaId)) {
+                        from.addAdjacentArea(toAreaId);
+                    }
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * @param type     the type code of the area.
+     * @param capacity the capacity, for animal habitats.
+     * @return a new area of that type.
+     */
+    private static IArea createArea(int type, int capacity) {
+        switch (type) {
+        case PICNIC_AREA:
+            return new PicnicArea();
+        case ENCLOSURE:
+            return new Enclosure(capacity);
+        case CAGE:
+            return new Cage(capacity);
+        case AQUARIUM:
+            return new Aquarium(capacity);
+        default:
+            return new Entrance();
+        }
+    }
+
+    /**
+     * @param a a sorted array of areaIds with no duplicates.
+     * @param b another.
+     * @return a sorted array of every areaId in either, with no duplicates. One
+     *         of the arguments if the other is empty.
+     */
+    private static int[] merge(int[] a, int[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        if (b.length == 0) {
+            return a;
+        }
+        int[] merged = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length || j < b.length) {
+            int next;
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                next = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                next = b[j++];
+            } else {
+                next = a[i++];
+                j++;
+            }
+            merged[n++] = next;
+        }
+        return n == merged.length ? merged : Arrays.copyOf(merged, n);
+    }
+
+    /**
+     * Parses a non-negative number after any spaces, and sets tokenEnd to just
+     * after it.
+     *
+     * @param line  the buffer holding the line.
+     * @param start where to start looking.
+     * @param end   the end of the line.
+     * @return the number.
+     * @throws IOException there is no number there.
+     */
+    private int parseNumber(byte[] line, int start, int end) throws IOException {
+        start = skipSpaces(line, start, end);
+        int stop = tokenEnd(line, start, end);
+        if (start == stop) {
+            throw mistake("expected a number");
+        }
+        long value = 0;
+        for (int i = start; i < stop; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw mistake("expected a number");
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                throw mistake("number too large");
+            }
+        }
+        tokenEnd = stop;
+        return (int) value;
+    }
+
+    /**
+     * @param line  the buffer holding the line.
+     * @param start where the rest of the line starts.
+     * @param end   the end of the line.
+     * @throws IOException there is more than spaces left on the line.
+     */
+    private void expectEnd(byte[] line, int start, int end) throws IOException {
+        if (skipSpaces(line, start, end) != end) {
+            throw mistake("unexpected text at the end of the line");
+        }
+    }
+
+    /**
+     * @param message what is wrong.
+     * @return an exception saying what is wrong on the current line.
+     */
+    private IOException mistake(String message) {
+        return new IOException("Line " + lineNumber + ": " + message + ".");
+    }
+
+    /**
+     * @return the index of the first byte from start that is not a space or tab.
+     */
+    private static int skipSpaces(byte[] line, int start, int end) {
+        while (start < end && (line[start] == ' ' || line[start] == '\t')) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * @return the index of the first space or tab from start.
+     */
+    private static int tokenEnd(byte[] line, int start, int end) {
+        while (start < end && line[start] != ' ' && line[start] != '\t') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * @return true if the bytes from start to end spell word.
+     */
+    private static boolean matches(byte[] line, int start, int end, String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (line[start + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Ingestion throughput on a random layout of 500k areas and 2M edges,
+        // against building the same zoo with addArea and connectAreas.
+        int areaCount = 500000;
+        int edgeCount = 2000000;
+        int[] from = new int[edgeCount];
+        int[] to = new int[edgeCount];
+        Random random = new Random(1);
+        for (int e = 0; e < edgeCount; e++) {
+            from[e] = random.nextInt(areaCount + 1);
+            to[e] = random.nextInt(areaCount + 1);
+        }
+        Path file = Files.createTempFile("layout", ".txt");
+        try {
+            BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII);
+            try {
+                for (int areaId = 1; areaId <= areaCount; areaId++) {
+                    out.write("area " + areaId + " PicnicArea\n");
+                }
+                for (int e = 0; e < edgeCount; e++) {
+                    out.write("edge " + from[e] + " " + to[e] + "\n");
+                }
+            } finally {
+                out.close();
+            }
+            System.out.printf("%d areas, %d edges, %d MB%n", areaCount, edgeCount, Files.size(file) >> 20);
+            for (int warmUp = 0; warmUp < 3; warmUp++) {
+                // Start each from an empty heap, so the last round's zoos are not
+                // collected in the middle of this one.
+                System.gc();
+                Zoo imported = new Zoo();
+                long time = System.nanoTime();
+                imported.importLayout(file);
+                long importTime = System.nanoTime() - time;
+                ArrayList<Integer> importedAdjacent = imported.getArea(areaCount).getAdjacentAreas();
+                imported = null;
+                System.gc();
+                Zoo built = new Zoo();
+                time = System.nanoTime();
+                for (int areaId = 1; areaId <= areaCount; areaId++) {
+                    built.addArea(new PicnicArea());
+                }
+                for (int e = 0; e < edgeCount; e++) {
+                    built.connectAreas(from[e], to[e]);
+                }
+                long buildTime = System.nanoTime() - time;
+                assert (importedAdjacent.equals(built.getArea(areaCount).getAdjacentAreas()));
+                System.out.printf("importLayout %d ms (%d edges/s), addArea and connectAreas %d ms (%d edges/s)%n",
+                        importTime / 1000000, edgeCount * 1000000000L / importTime, buildTime / 1000000,
+                        edgeCount * 1000000000L / buildTime);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,894 @@
+package zoo;
+
+import animals.Animal;
+import animals.Lion;
+import animals.Seal;
+import animals.Zebra;
+import areas.AnimalHabitat;
+import areas.Aquarium;
+import areas.Area;
+import areas.Enclosure;
+import areas.IArea;
+import areas.PicnicArea;
+import dataStructures.ICashCount;
+import dataStructures.IConnections;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * A read-only zoo kept in a memory-mapped file instead of on the heap, for
+ * layouts with far more areas than would fit as Area objects. The connections
+ * are stored in compressed sparse row form, like GraphSnapshot, and the
+ * nicknames of each habitat's animals as UTF-8 strings. isPathAllowed, visit and
+ * findUnreachableAreas read the mapped file directly. getArea gives a small view
+ * of one area that is made when asked for and reads the file too.
+ *
+ * The file is, in order: a header; a byte per areaId saying whether there is an
+ * area with that id and whether it is an animal habitat; where each area's
+ * adjacent areaIds start; every adjacent areaId, row after row, each row in
+ * ascending order; where each area's nicknames start; where each nickname's
+ * bytes start; and the nickname bytes. Sections bigger than one mapping allows
+ * are mapped in several pages.
+ *
+ * Every method that would change the zoo throws UnsupportedOperationException.
+ */
+public class MappedZoo implements IZoo, IConnections {
+
+    /**
+     * The first four bytes of every file, "ZOOG".
+     */
+    public static final int MAGIC = 0x5A4F4F47;
+
+    /**
+     * The version of the format written by save.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The kind byte of an areaId with no area, a human area, and an animal
+     * habitat.
+     */
+    public static final byte NO_AREA = 0;
+    public static final byte HUMAN_AREA = 1;
+    public static final byte ANIMAL_HABITAT = 2;
+
+    /**
+     * The size of the header: magic, version, idBound, then the edge, nickname
+     * and nickname byte counts.
+     */
+    private static final int HEADER_BYTES = 4 * 3 + 8 * 3;
+
+    /**
+     * Each mapped page is 1 GiB, which is a multiple of every element size.
+     */
+    private static final int PAGE_SHIFT = 30;
+
+    /**
+     * One more than the largest areaId.
+     */
+    private final int idBound;
+
+    /**
+     * The sections of the file. See the class comment.
+     */
+    private final MappedSection kinds;
+    private final MappedSection edgeOffsets;
+    private final MappedSection targets;
+    private final MappedSection nameOffsets;
+    private final MappedSection nameByteOffsets;
+    private final MappedSection nameBytes;
+
+    /**
+     * MappedZoo constructor. Maps a file written by save.
+     *
+     * @param file the file to map.
+     * @throws IOException the file can not be read or is not a mapped zoo.
+     */
+    public MappedZoo(Path file) throws IOException {
+        this(file, PAGE_SHIFT);
+    }
+
+    /**
+     * MappedZoo constructor with a chosen page size, so paging can be tested on
+     * small files.
+     *
+     * @param file      the file to map.
+     * @param pageShift each page is 2 to the power of this many bytes. At least
+     *                  3.
+     * @throws IOException the file can not be read or is not a mapped zoo.
+     */
+    MappedZoo(Path file, int pageShift) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a mapped zoo.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Mapped zoo version " + version + " is not supported.");
+            }
+            idBound = header.getInt();
+            long edgeCount = header.getLong();
+            long nameCount = header.getLong();
+            long nameByteCount = header.getLong();
+            long position = HEADER_BYTES;
+            kinds = new MappedSection(channel, position, idBound, pageShift);
+            position += idBound;
+            edgeOffsets = new MappedSection(channel, position, 8L * (idBound + 1), pageShift);
+            position += 8L * (idBound + 1);
+            targets = new MappedSection(channel, position, 4L * edgeCount, pageShift);
+            position += 4L * edgeCount;
+            nameOffsets = new MappedSection(channel, position, 8L * (idBound + 1), pageShift);
+            position += 8L * (idBound + 1);
+            nameByteOffsets = new MappedSection(channel, position, 8L * (nameCount + 1), pageShift);
+            position += 8L * (nameCount + 1);
+            nameBytes = new MappedSection(channel, position, nameByteCount, pageShift);
+        } finally {
+            // The mappings stay valid after the channel is closed.
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the areas of a zoo in the form MappedZoo reads. Areas with a negative
+     * areaId are left out, as in GraphSnapshot.
+     *
+     * @param areas the areas of the zoo, keyed by areaId.
+     * @param file  the file to write. Replaced if it exists.
+     * @throws IOException the file can not be written.
+     */
+    public static void save(Map<Integer, IArea> areas, Path file) throws IOException {
+        int idBound = 0;
+        for (Integer areaId : areas.keySet()) {
+            idBound = Math.max(idBound, areaId + 1);
+        }
+        Writer writer = new Writer(file, idBound);
+        try {
+            for (int i = 0; i < idBound; i++) {
+                IArea area = areas.get(i);
+                if (area == null) {
+                    continue;
+                }
+                writer.area(i, area instanceof AnimalHabitat ? ANIMAL_HABITAT : HUMAN_AREA);
+                for (int areaId : Area.adjacentAreaIdsOf(area)) {
+                    writer.edge(areaId);
+                }
+                if (area instanceof AnimalHabitat) {
+                    for (Animal animal : ((AnimalHabitat) area).getAnimals()) {
+                        writer.nickname(animal.getNickname());
+                    }
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    // Basic
+
+    /**
+     * @throws UnsupportedOperationException always, as a MappedZoo is read-only.
+     */
+    public int addArea(IArea area) {
+        throw readOnly();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as a MappedZoo is read-only.
+     */
+    public void removeArea(int areaId) {
+        throw readOnly();
+    }
+
+    /**
+     * Makes a view of one area. Each call makes a new view, so views should not
+     * be compared with ==.
+     *
+     * @param areaId the areaId of the area.
+     * @return a view of the area, or null if there is no area with areaId.
+     */
+    public IArea getArea(int areaId) {
+        if (!hasArea(areaId)) {
+            return null;
+        }
+        return new AreaView(areaId);
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as a MappedZoo is read-only.
+     */
+    public byte addAnimal(int areaId, Animal animal) {
+        throw readOnly();
+    }
+
+    // Intermediate
+
+    /**
+     * @throws UnsupportedOperationException always, as a MappedZoo is read-only.
+     */
+    public void connectAreas(int fromAreaId, int toAreaId) {
+        throw readOnly();
+    }
+
+    /**
+     * @param areaIds the path, as areaIds in the order they are visited.
+     * @return true if each area in the path connects to the next one.
+     */
+    public boolean isPathAllowed(ArrayList<Integer> areaIds) {
+        int[] path = new int[areaIds.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = areaIds.get(i);
+        }
+        return PathValidator.isPathAllowed(this, path, 0, path.length);
+    }
+
+    /**
+     * @param areaIdsVisited the path the visitor takes across the zoo.
+     * @return the nicknames of the animals seen along the path, or null if the
+     *         path is not allowed.
+     */
+    public ArrayList<String> visit(ArrayList<Integer> areaIdsVisited) {
+        if (!isPathAllowed(areaIdsVisited)) {
+            return null;
+        }
+        ArrayList<String> names = new ArrayList<String>();
+        for (int i = 0; i < areaIdsVisited.size(); i++) {
+            int areaId = areaIdsVisited.get(i);
+            if (hasArea(areaId)) {
+                addNicknames(areaId, names);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Searches from the entrance (areaId 0) breadth first over the mapped rows.
+     *
+     * @return the unreachable areas, in ascending order.
+     */
+    public ArrayList<Integer> findUnreachableAreas() {
+        BitSet reached = new BitSet(idBound);
+        if (hasArea(0)) {
+            int[] queue = new int[16];
+            int head = 0;
+            int tail = 0;
+            reached.set(0);
+            queue[tail++] = 0;
+            while (head < tail) {
+                int areaId = queue[head++];
+                long end = edgeOffsets.getLong(areaId + 1);
+                for (long e = edgeOffsets.getLong(areaId); e < end; e++) {
+                    int next = targets.getInt(e);
+                    if (!hasArea(next) || reached.get(next)) {
+                        continue;
+                    }
+                    reached.set(next);
+                    if (tail == queue.length) {
+                        int[] bigger = new int[Math.min(Math.max(queue.length * 2, 16), idBound)];
+                        System.arraycopy(queue, 0, bigger, 0, tail);
+                        queue = bigger;
+                    }
+                    queue[tail++] = next;
+                }
+            }
+        }
+        ArrayList<Integer> unreachableAreas = new ArrayList<Integer>();
+        for (int areaId = reached.nextClearBit(0); areaId < idBound; areaId = reached.nextClearBit(areaId + 1)) {
+            if (hasArea(areaId)) {
+                unreachableAreas.add(areaId);
+            }
+        }
+        return unreachableAreas;
+    }
+
+    // Advanced
+
+    /**
+     * @throws UnsupportedOperationException always, as a MappedZoo has no ticket
+     *                                       machine.
+     */
+    public void setEntranceFee(int pounds, int pence) {
+        throw readOnly();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as a MappedZoo has no ticket
+     *                                       machine.
+     */
+    public void setCashSupply(ICashCount coins) {
+        throw readOnly();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as a MappedZoo has no ticket
+     *                                       machine.
+     */
+    public ICashCount getCashSupply() {
+        throw readOnly();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as a MappedZoo has no ticket
+     *                                       machine.
+     */
+    public ICashCount payEntranceFee(ICashCount cashInserted) {
+        throw readOnly();
+    }
+
+    // Connections
+
+    /**
+     * @return one more than the largest areaId.
+     */
+    public int idBound() {
+        return idBound;
+    }
+
+    /**
+     * @param areaId the areaId being checked.
+     * @return true if there is an area with areaId.
+     */
+    public boolean hasArea(int areaId) {
+        return areaId >= 0 && areaId < idBound && kinds.get(areaId) != NO_AREA;
+    }
+
+    /**
+     * Binary searches the row of fromAreaId in the mapped targets.
+     *
+     * @param fromAreaId the area the connection starts from.
+     * @param toAreaId   the area the connection goes to.
+     * @return true if toAreaId is adjacent to fromAreaId.
+     */
+    public boolean hasConnection(int fromAreaId, int toAreaId) {
+        if (!hasArea(fromAreaId)) {
+            return false;
+        }
+        long low = edgeOffsets.getLong(fromAreaId);
+        long high = edgeOffsets.getLong(fromAreaId + 1) - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            int areaId = targets.getInt(middle);
+            if (areaId < toAreaId) {
+                low = middle + 1;
+            } else if (areaId > toAreaId) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the nicknames of the animals in an area to a list.
+     *
+     * @param areaId the area.
+     * @param names  the list the nicknames are added to.
+     */
+    private void addNicknames(int areaId, ArrayList<String> names) {
+        long end = nameOffsets.getLong(areaId + 1);
+        for (long n = nameOffsets.getLong(areaId); n < end; n++) {
+            long start = nameByteOffsets.getLong(n);
+            byte[] bytes = new byte[(int) (nameByteOffsets.getLong(n + 1) - start)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = nameBytes.get(start + i);
+            }
+            names.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return the exception thrown by every method that would change the zoo.
+     */
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("A MappedZoo is read-only.");
+    }
+
+    /**
+     * A view of one area of a MappedZoo. Holds only its areaId and reads
+     * everything else from the mapped file.
+     */
+    public class AreaView implements IArea {
+
+        /**
+         * The areaId of the area.
+         */
+        private final int areaId;
+
+        AreaView(int areaId) {
+            this.areaId = areaId;
+        }
+
+        /**
+         * @return the areaId of the area.
+         */
+        public int getAreaId() {
+            return areaId;
+        }
+
+        /**
+         * @return true if the area is an animal habitat.
+         */
+        public boolean isAnimalHabitat() {
+            return kinds.get(areaId) == ANIMAL_HABITAT;
+        }
+
+        /**
+         * @return a new list of the adjacent areaIds, in ascending order.
+         */
+        public ArrayList<Integer> getAdjacentAreas() {
+            long start = edgeOffsets.getLong(areaId);
+            long end = edgeOffsets.getLong(areaId + 1);
+            ArrayList<Integer> areaIds = new ArrayList<Integer>((int) (end - start));
+            for (long e = start; e < end; e++) {
+                areaIds.add(targets.getInt(e));
+            }
+            return areaIds;
+        }
+
+        /**
+         * @return a new list of the nicknames of the animals in the area.
+         */
+        public ArrayList<String> getNicknames() {
+            ArrayList<String> names = new ArrayList<String>();
+            addNicknames(areaId, names);
+            return names;
+        }
+
+        /**
+         * @throws UnsupportedOperationException always, as a MappedZoo is
+         *                                       read-only.
+         */
+        public void addAdjacentArea(int areaId) {
+            throw readOnly();
+        }
+
+        /**
+         * @throws UnsupportedOperationException always, as a MappedZoo is
+         *                                       read-only.
+         */
+        public void removeAdjacentArea(int areaId) {
+            throw readOnly();
+        }
+    }
+
+    /**
+     * Writes a file MappedZoo reads from a stream of records, so a zoo too big to
+     * hold as Area objects can be written without ever making them. Each area is
+     * started with area, in ascending areaId order, and then given its adjacent
+     * areaIds with edge, in ascending order, and its animals' nicknames with
+     * nickname. areaIds that are never started have no area.
+     *
+     * The kinds, edge offsets and adjacent areaIds are written straight into their
+     * places in the file, as where each starts depends only on idBound. The
+     * nickname sections come after the adjacent areaIds, so they are written to
+     * temporary files beside the file and copied in by close. Only a few buffers
+     * are held in memory however big the zoo is.
+     */
+    public static final class Writer {
+
+        /**
+         * The file being written.
+         */
+        private final FileChannel channel;
+
+        /**
+         * One more than the largest areaId that can be written.
+         */
+        private final int idBound;
+
+        /**
+         * The sections of the file, in file order. See the class comment of
+         * MappedZoo.
+         */
+        private final SectionWriter kinds;
+        private final SectionWriter edgeOffsets;
+        private final SectionWriter targets;
+        private final SectionWriter nameOffsets;
+        private final SectionWriter nameByteOffsets;
+        private final SectionWriter nameBytes;
+
+        /**
+         * The areaId of the area being written, or -1 before the first.
+         */
+        private int areaId = -1;
+
+        /**
+         * The last adjacent areaId written for the current area.
+         */
+        private long lastTarget;
+
+        /**
+         * The numbers of adjacent areaIds, nicknames and nickname bytes written.
+         */
+        private long edgeCount;
+        private long nameCount;
+        private long nameByteCount;
+
+        /**
+         * Writer constructor.
+         *
+         * @param file    the file to write. Replaced if it exists.
+         * @param idBound one more than the largest areaId that will be written.
+         * @throws IOException              the file can not be written.
+         * @throws IllegalArgumentException idBound is negative.
+         */
+        public Writer(Path file, int idBound) throws IOException {
+            if (idBound < 0) {
+                throw new IllegalArgumentException("idBound must not be negative.");
+            }
+            this.idBound = idBound;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            Path directory = file.toAbsolutePath().getParent();
+            kinds = new SectionWriter(channel, HEADER_BYTES);
+            edgeOffsets = new SectionWriter(channel, HEADER_BYTES + idBound);
+            targets = new SectionWriter(channel, HEADER_BYTES + idBound + 8L * (idBound + 1));
+            nameOffsets = new SectionWriter(directory);
+            nameByteOffsets = new SectionWriter(directory);
+            nameBytes = new SectionWriter(directory);
+            nameByteOffsets.putLong(0);
+        }
+
+        /**
+         * Starts an area, ending the one before.
+         *
+         * @param areaId the areaId of the area. Larger than any written before
+         *               and less than idBound.
+         * @param kind   HUMAN_AREA or ANIMAL_HABITAT.
+         * @throws IOException              the file can not be written.
+         * @throws IllegalArgumentException the areaId or kind is not allowed.
+         */
+        public void area(int areaId, byte kind) throws IOException {
+            if (areaId <= this.areaId || areaId >= idBound) {
+                throw new IllegalArgumentException("Area " + areaId + " is out of order or not below idBound.");
+            }
+            if (kind != HUMAN_AREA && kind != ANIMAL_HABITAT) {
+                throw new IllegalArgumentException("Kind " + kind + " is not an area.");
+            }
+            skipTo(areaId);
+            kinds.putByte(kind);
+            this.areaId = areaId;
+            lastTarget = Long.MIN_VALUE;
+        }
+
+        /**
+         * Adds an adjacent areaId to the current area.
+         *
+         * @param toAreaId the areaId. Larger than the last one given to this area.
+         * @throws IOException              the file can not be written.
+         * @throws IllegalArgumentException no area has been started, or toAreaId
+         *                                  is out of order.
+         */
+        public void edge(int toAreaId) throws IOException {
+            if (areaId < 0 || toAreaId <= lastTarget) {
+                throw new IllegalArgumentException("Edge to " + toAreaId + " is out of order or has no area.");
+            }
+            targets.putInt(toAreaId);
+            lastTarget = toAreaId;
+            edgeCount++;
+        }
+
+        /**
+         * Adds the nickname of an animal living in the current area.
+         *
+         * @param nickname the nickname.
+         * @throws IOException              the file can not be written.
+         * @throws IllegalArgumentException no area has been started.
+         */
+        public void nickname(String nickname) throws IOException {
+            if (areaId < 0) {
+                throw new IllegalArgumentException("A nickname needs an area.");
+            }
+            byte[] bytes = nickname.getBytes(StandardCharsets.UTF_8);
+            nameBytes.putBytes(bytes);
+            nameByteCount += bytes.length;
+            nameByteOffsets.putLong(nameByteCount);
+            nameCount++;
+        }
+
+        /**
+         * Ends the last area, gives every areaId up to idBound that was not
+         * written no area, and finishes the file. Must be called once every area
+         * is written, and deletes the temporary files even if it fails.
+         *
+         * @throws IOException the file can not be written.
+         */
+        public void close() throws IOException {
+            try {
+                skipTo(idBound);
+                kinds.flush();
+                edgeOffsets.flush();
+                targets.flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putInt(idBound);
+                header.putLong(edgeCount).putLong(nameCount).putLong(nameByteCount);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                long position = HEADER_BYTES + idBound + 8L * (idBound + 1) + 4L * edgeCount;
+                position = nameOffsets.copyTo(channel, position);
+                position = nameByteOffsets.copyTo(channel, position);
+                nameBytes.copyTo(channel, position);
+            } finally {
+                channel.close();
+                nameOffsets.delete();
+                nameByteOffsets.delete();
+                nameBytes.delete();
+            }
+        }
+
+        /**
+         * Ends the current area and gives every areaId before nextAreaId that was
+         * not written no area. Writes where each row from areaId + 1 up to
+         * nextAreaId starts, which is also where the row before it ends.
+         *
+         * @param nextAreaId the areaId about to be started, or idBound.
+         * @throws IOException the file can not be written.
+         */
+        private void skipTo(int nextAreaId) throws IOException {
+            for (int i = areaId + 1; i <= nextAreaId; i++) {
+                edgeOffsets.putLong(edgeCount);
+                nameOffsets.putLong(nameCount);
+                if (i < nextAreaId) {
+                    kinds.putByte(NO_AREA);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes one section of a file in order through a buffer, either at a fixed
+     * place in the file or into a temporary file to be copied in later.
+     */
+    private static class SectionWriter {
+
+        private final FileChannel channel;
+        private final Path temporary;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private long position;
+
+        /**
+         * @param channel  the file.
+         * @param position where in the file the section starts.
+         */
+        SectionWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.temporary = null;
+            this.position = position;
+        }
+
+        /**
+         * @param directory the directory to make the temporary file in.
+         * @throws IOException the temporary file can not be made.
+         */
+        SectionWriter(Path directory) throws IOException {
+            temporary = Files.createTempFile(directory, "mapped", ".section");
+            channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        void putByte(byte b) throws IOException {
+            make(1);
+            buffer.put(b);
+        }
+
+        void putInt(int i) throws IOException {
+            make(4);
+            buffer.putInt(i);
+        }
+
+        void putLong(long l) throws IOException {
+            make(8);
+            buffer.putLong(l);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (int start = 0; start < bytes.length;) {
+                make(1);
+                int length = Math.min(bytes.length - start, buffer.remaining());
+                buffer.put(bytes, start, length);
+                start += length;
+            }
+        }
+
+        /**
+         * Writes the buffer out if it has less than some room left.
+         *
+         * @param bytes the room needed.
+         * @throws IOException the file can not be written.
+         */
+        private void make(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Copies a temporary section into the file.
+         *
+         * @param to    the file.
+         * @param where where in the file the section goes.
+         * @return where the section ends in the file.
+         * @throws IOException either file can not be read or written.
+         */
+        long copyTo(FileChannel to, long where) throws IOException {
+            flush();
+            for (long copied = 0; copied < position;) {
+                copied += channel.transferTo(copied, position - copied, to.position(where + copied));
+            }
+            return where + position;
+        }
+
+        /**
+         * Closes and deletes a temporary section.
+         *
+         * @throws IOException the temporary file can not be deleted.
+         */
+        void delete() throws IOException {
+            if (temporary != null) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * One section of the file, mapped in pages so it can be bigger than a single
+     * mapping allows. Elements never cross a page, as every page size used is a
+     * multiple of 8 and every section holds elements of one size.
+     */
+    private static class MappedSection {
+
+        private final ByteBuffer[] pages;
+        private final int pageShift;
+        private final long pageMask;
+
+        MappedSection(FileChannel channel, long position, long size, int pageShift) throws IOException {
+            if (position + size > channel.size()) {
+                throw new IOException("The mapped zoo file is too short.");
+            }
+            this.pageShift = pageShift;
+            pageMask = (1L << pageShift) - 1;
+            pages = new ByteBuffer[(int) ((size + pageMask) >>> pageShift)];
+            for (int p = 0; p < pages.length; p++) {
+                long start = (long) p << pageShift;
+                pages[p] = channel.map(FileChannel.MapMode.READ_ONLY, position + start,
+                        Math.min(size - start, 1L << pageShift));
+            }
+        }
+
+        byte get(long index) {
+            return pages[(int) (index >>> pageShift)].get((int) (index & pageMask));
+        }
+
+        int getInt(long index) {
+            long position = index << 2;
+            return pages[(int) (position >>> pageShift)].getInt((int) (position & pageMask));
+        }
+
+        long getLong(long index) {
+            long position = index << 3;
+            return pages[(int) (position >>> pageShift)].getLong((int) (position & pageMask));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Zoo zoo = new Zoo();
+        Enclosure enclosure = new Enclosure(5);
+        int enclosureId = zoo.addArea(enclosure);
+        zoo.addAnimal(enclosureId, new Lion("Simba"));
+        zoo.addAnimal(enclosureId, new Lion("Nalaé"));
+        int picnicId = zoo.addArea(new PicnicArea());
+        Aquarium aquarium = new Aquarium(3);
+        int aquariumId = zoo.addArea(aquarium);
+        zoo.addAnimal(aquariumId, new Seal("Blubber"));
+        int lonelyId = zoo.addArea(new Enclosure(1));
+        zoo.addAnimal(lonelyId, new Zebra("Stripes"));
+        zoo.connectAreas(0, enclosureId);
+        zoo.connectAreas(enclosureId, picnicId);
+        zoo.connectAreas(picnicId, aquariumId);
+        zoo.connectAreas(aquariumId, 0);
+        zoo.connectAreas(lonelyId, 0);
+        zoo.removeArea(picnicId);
+
+        Path file = Files.createTempFile("zoo", ".mapped");
+        try {
+            MappedZoo.save(zoo.getAreas(), file);
+            // Tiny pages, so every section is spread over several.
+            for (int pageShift : new int[] { 3, 4, 30 }) {
+                MappedZoo mapped = new MappedZoo(file, pageShift);
+                assert (mapped.getArea(picnicId) == null);
+                assert (mapped.getArea(enclosureId).getAdjacentAreas().equals(enclosure.getAdjacentAreas()));
+                assert (((AreaView) mapped.getArea(aquariumId)).isAnimalHabitat());
+                assert (!((AreaView) mapped.getArea(0)).isAnimalHabitat());
+                assert (mapped.findUnreachableAreas().equals(zoo.findUnreachableAreas()))
+                        : mapped.findUnreachableAreas();
+                for (int from = -1; from < 6; from++) {
+                    for (int to = -1; to < 6; to++) {
+                        ArrayList<Integer> path = new ArrayList<Integer>();
+                        path.add(from);
+                        path.add(to);
+                        assert (mapped.isPathAllowed(path) == zoo.isPathAllowed(path));
+                        assert (String.valueOf(mapped.visit(path)).equals(String.valueOf(zoo.visit(path))));
+                    }
+                }
+                ArrayList<Integer> path = new ArrayList<Integer>();
+                path.add(picnicId);
+                assert (mapped.visit(path).equals(zoo.visit(path)));
+                path.clear();
+                path.add(lonelyId);
+                path.add(0);
+                path.add(enclosureId);
+                assert (mapped.visit(path).equals(zoo.visit(path))) : mapped.visit(path);
+                try {
+                    mapped.addArea(new PicnicArea());
+                    assert false;
+                } catch (UnsupportedOperationException e) {
+                }
+            }
+
+            // The same file written as a stream of records, with no Area objects.
+            byte[] saved = Files.readAllBytes(file);
+            Writer writer = new Writer(file, lonelyId + 1);
+            writer.area(0, HUMAN_AREA);
+            writer.edge(enclosureId);
+            writer.area(enclosureId, ANIMAL_HABITAT);
+            writer.edge(picnicId);
+            writer.nickname("Simba");
+            writer.nickname("Nalaé");
+            writer.area(aquariumId, ANIMAL_HABITAT);
+            writer.edge(0);
+            writer.nickname("Blubber");
+            writer.area(lonelyId, ANIMAL_HABITAT);
+            writer.edge(0);
+            writer.nickname("Stripes");
+            try {
+                writer.edge(-1);
+                assert false;
+            } catch (IllegalArgumentException e) {
+            }
+            try {
+                writer.area(aquariumId, HUMAN_AREA);
+                assert false;
+            } catch (IllegalArgumentException e) {
+            }
+            writer.close();
+            assert (Arrays.equals(Files.readAllBytes(file), saved));
+
+            // A file with no areas at all, and one with a gap at the end.
+            new Writer(file, 0).close();
+            assert (new MappedZoo(file).findUnreachableAreas().isEmpty());
+            writer = new Writer(file, 3);
+            writer.area(0, HUMAN_AREA);
+            writer.close();
+            MappedZoo gap = new MappedZoo(file, 3);
+            assert (gap.idBound() == 3 && gap.hasArea(0) && !gap.hasArea(1) && !gap.hasArea(2));
+            assert (gap.getArea(0).getAdjacentAreas().isEmpty());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
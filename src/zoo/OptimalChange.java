@@ -0,0 +1,244 @@
+package zoo;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import dataStructures.CashCount;
+
+/**
+ * A change strategy that always finds change when the stock allows it, using as
+ * few notes and coins as possible. Solves the bounded knapsack problem by dynamic
+ * programming over amounts in 10p units: for each denomination, the fewest notes
+ * and coins for every amount is found from the previous denomination's row with a
+ * sliding window minimum, so each row takes time linear in the amount.
+ *
+ * Each thread keeps its own tables. If the stock has not changed since the last
+ * call and the amount is no larger, the tables are reused without solving again.
+ */
+public class OptimalChange implements IChangeStrategy {
+
+    /**
+     * Every denomination is a multiple of this many pence.
+     */
+    private static final int UNIT_PENCE = 10;
+
+    /**
+     * Marks an amount that cannot be made.
+     */
+    private static final int IMPOSSIBLE = Integer.MAX_VALUE;
+
+    /**
+     * The tables of the thread calling makeChange.
+     */
+    private final ThreadLocal<Tables> tables = new ThreadLocal<Tables>() {
+        @Override
+        protected Tables initialValue() {
+            return new Tables();
+        }
+    };
+
+    /**
+     * @param changePence the change to give, in pence.
+     * @param stock       the count of each denomination that can be given.
+     * @param change      filled in with the count of each denomination to give.
+     * @return true if the change can be given from stock.
+     */
+    public boolean makeChange(int changePence, int[] stock, int[] change) {
+        if (changePence < 0 || changePence % UNIT_PENCE != 0) {
+            return false;
+        }
+        long totalPence = 0;
+        for (int i = 0; i < stock.length; i++) {
+            totalPence += (long) stock[i] * CashCount.penceOf(i);
+        }
+        if (totalPence < changePence) {
+            return false;
+        }
+        Tables t = tables.get();
+        int amount = changePence / UNIT_PENCE;
+        if (!Arrays.equals(stock, t.stock) || amount > t.amount) {
+            t.solve(stock, amount);
+        }
+        if (t.fewest[amount] == IMPOSSIBLE) {
+            return false;
+        }
+        // Walk back through the rows to find how many of each were used.
+        for (int i = stock.length - 1; i >= 0; i--) {
+            change[i] = t.taken[i][amount];
+            amount -= change[i] * (CashCount.penceOf(i) / UNIT_PENCE);
+        }
+        return true;
+    }
+
+    /**
+     * The dynamic programming tables for one thread.
+     */
+    private static class Tables {
+
+        /**
+         * The stock the tables were solved for, or null.
+         */
+        int[] stock;
+
+        /**
+         * The largest amount, in units, the tables were solved for.
+         */
+        int amount = -1;
+
+        /**
+         * taken[i][a] is how many of denomination i the best way of making amount a
+         * from denominations 0 to i uses.
+         */
+        int[][] taken = new int[CashCount.DENOMINATION_COUNT][];
+
+        /**
+         * The fewest notes and coins needed to make each amount with every
+         * denomination, or IMPOSSIBLE.
+         */
+        int[] fewest = new int[0];
+
+        /**
+         * The previous denomination's row while solving.
+         */
+        int[] previous = new int[0];
+
+        /**
+         * Sliding window of candidate counts, and their keys, while solving.
+         */
+        int[] window = new int[0];
+        int[] keys = new int[0];
+
+        /**
+         * Fills the tables for every amount up to amount.
+         *
+         * @param stock  the count of each denomination that can be given.
+         * @param amount the largest amount needed, in units.
+         */
+        void solve(int[] stock, int amount) {
+            if (fewest.length < amount + 1) {
+                int size = Math.max(amount + 1, fewest.length * 2);
+                fewest = new int[size];
+                previous = new int[size];
+                window = new int[size];
+                keys = new int[size];
+                for (int i = 0; i < taken.length; i++) {
+                    taken[i] = new int[size];
+                }
+            }
+            Arrays.fill(previous, 0, amount + 1, IMPOSSIBLE);
+            previous[0] = 0;
+            for (int i = 0; i < stock.length; i++) {
+                int value = CashCount.penceOf(i) / UNIT_PENCE;
+                int limit = stock[i];
+                int[] row = taken[i];
+                // Amounts with the same remainder only depend on each other. Using
+                // k of this denomination for amount r + k * value costs
+                // previous[r + j * value] + (k - j) for the best j in [k - limit, k].
+                for (int r = 0; r < value && r <= amount; r++) {
+                    int head = 0;
+                    int tail = 0;
+                    for (int k = 0, a = r; a <= amount; k++, a += value) {
+                        if (previous[a] != IMPOSSIBLE) {
+                            int key = previous[a] - k;
+                            while (tail > head && keys[tail - 1] >= key) {
+                                tail--;
+                            }
+                            window[tail] = k;
+                            keys[tail++] = key;
+                        }
+                        while (tail > head && window[head] < k - limit) {
+                            head++;
+                        }
+                        if (tail > head) {
+                            fewest[a] = keys[head] + k;
+                            row[a] = k - window[head];
+                        } else {
+                            fewest[a] = IMPOSSIBLE;
+                            row[a] = 0;
+                        }
+                    }
+                }
+                int[] swap = previous;
+                previous = fewest;
+                fewest = swap;
+            }
+            // previous holds the last row.
+            int[] swap = previous;
+            previous = fewest;
+            fewest = swap;
+            if (this.stock == null || this.stock.length != stock.length) {
+                this.stock = new int[stock.length];
+            }
+            System.arraycopy(stock, 0, this.stock, 0, stock.length);
+            this.amount = amount;
+        }
+    }
+
+    public static void main(String[] args) {
+        // 60p from one 50p and three 20p coins: greedy gives up, optimal does not.
+        int[] stock = new int[CashCount.DENOMINATION_COUNT];
+        stock[CashCount.FIFTY_P_COIN] = 1;
+        stock[CashCount.TWENTY_P_COIN] = 3;
+        int[] change = new int[stock.length];
+        assert (!new GreedyChange().makeChange(60, stock, change));
+        assert (new OptimalChange().makeChange(60, stock, change));
+        assert (change[CashCount.TWENTY_P_COIN] == 3 && change[CashCount.FIFTY_P_COIN] == 0);
+
+        // Latency against greedy, both with a fresh stock for every call, so the
+        // tables are solved every time, and with one stock, so they are reused.
+        Random random = new Random(1);
+        int[][] stocks = new int[1000][CashCount.DENOMINATION_COUNT];
+        for (int[] s : stocks) {
+            for (int i = 0; i < s.length; i++) {
+                s[i] = random.nextInt(6);
+            }
+        }
+        int[] amounts = new int[997];
+        for (int n = 0; n < amounts.length; n++) {
+            amounts[n] = 10 * random.nextInt(201);
+        }
+        IChangeStrategy[] strategies = { new GreedyChange(), new OptimalChange() };
+        String[] names = { "greedy", "optimal" };
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            for (int fixed = 0; fixed < 2; fixed++) {
+                StringBuilder line = new StringBuilder(fixed == 0 ? "new stock every call" : "same stock");
+                for (int k = 0; k < strategies.length; k++) {
+                    long[] result = timeChange(strategies[k], stocks, amounts, fixed == 1, 200000);
+                    line.append(String.format(", %s %d ns/call %d KB %d paid", names[k], result[0], result[1] / 1024,
+                            result[2]));
+                }
+                System.out.println(line);
+            }
+        }
+    }
+
+    /**
+     * Times a change strategy over a mix of stocks and amounts up to £20.
+     *
+     * @param strategy the strategy to time.
+     * @param stocks   the stocks to give change from.
+     * @param amounts  the amounts of change, in pence.
+     * @param fixed    true to use only the first stock.
+     * @param calls    the number of calls to time.
+     * @return the nanoseconds per call, the bytes allocated, and the number of
+     *         calls that could give the change.
+     */
+    private static long[] timeChange(IChangeStrategy strategy, int[][] stocks, int[] amounts, boolean fixed,
+            int calls) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        int[] change = new int[CashCount.DENOMINATION_COUNT];
+        long paid = 0;
+        long bytes = mx.getCurrentThreadAllocatedBytes();
+        long time = System.nanoTime();
+        for (int n = 0; n < calls; n++) {
+            int[] stock = stocks[fixed ? 0 : n % stocks.length];
+            if (strategy.makeChange(amounts[n % amounts.length], stock, change)) {
+                paid++;
+            }
+        }
+        time = System.nanoTime() - time;
+        bytes = mx.getCurrentThreadAllocatedBytes() - bytes;
+        return new long[] { time / calls, bytes, paid };
+    }
+}
@@ -0,0 +1,186 @@
+package zoo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import areas.PicnicArea;
+import dataStructures.AreaRegistry;
+import dataStructures.GraphSnapshot;
+
+/**
+ * Level-synchronous breadth-first search over a GraphSnapshot, for zoos with
+ * millions of areas. Each level's frontier is split between the threads of a
+ * ForkJoinPool, and areas are claimed with a compare-and-set on a shared bitset
+ * so each one is only searched once. Finds the same areas as Reachability.
+ */
+public class ParallelReachability {
+
+    /**
+     * Frontiers smaller than this are searched on one thread.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * The snapshot being searched.
+     */
+    private final GraphSnapshot graph;
+
+    /**
+     * One bit per areaId, set once the area has been claimed by a thread.
+     */
+    private final AtomicLongArray reached;
+
+    /**
+     * ParallelReachability constructor.
+     *
+     * @param graph the snapshot to search.
+     */
+    public ParallelReachability(GraphSnapshot graph) {
+        this.graph = graph;
+        reached = new AtomicLongArray((graph.idBound() + 63) / 64);
+    }
+
+    /**
+     * Searches from startAreaId.
+     *
+     * @param startAreaId the area the search starts from.
+     * @param pool        the pool the search runs on.
+     * @return the areaIds reachable from startAreaId, including itself if it
+     *         exists.
+     */
+    public BitSet reach(int startAreaId, ForkJoinPool pool) {
+        if (graph.hasArea(startAreaId) && claim(startAreaId)) {
+            int[] frontier = new int[] { startAreaId };
+            while (frontier.length > 0) {
+                frontier = pool.invoke(new LevelTask(frontier, 0, frontier.length));
+            }
+        }
+        long[] words = new long[reached.length()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = reached.get(i);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Sets the bit for an areaId.
+     *
+     * @param areaId the area being claimed.
+     * @return true if this call set the bit, false if it was already set.
+     */
+    private boolean claim(int areaId) {
+        int word = areaId >>> 6;
+        long bit = 1L << areaId;
+        while (true) {
+            long old = reached.get(word);
+            if ((old & bit) != 0) {
+                return false;
+            }
+            if (reached.compareAndSet(word, old, old | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Searches part of one frontier and returns the areas it claimed, which make
+     * up part of the next frontier.
+     */
+    private class LevelTask extends RecursiveTask<int[]> {
+
+        /**
+         * A LevelTask only lives inside one fork/join run, so this is never used.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The whole frontier being searched.
+         */
+        private final int[] frontier;
+
+        /**
+         * The part of frontier this task searches, from start up to end.
+         */
+        private final int start;
+        private final int end;
+
+        LevelTask(int[] frontier, int start, int end) {
+            this.frontier = frontier;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (end - start > CHUNK_SIZE) {
+                int middle = (start + end) >>> 1;
+                LevelTask left = new LevelTask(frontier, start, middle);
+                left.fork();
+                int[] right = new LevelTask(frontier, middle, end).compute();
+                int[] leftResult = left.join();
+                int[] next = Arrays.copyOf(leftResult, leftResult.length + right.length);
+                System.arraycopy(right, 0, next, leftResult.length, right.length);
+                return next;
+            }
+            int[] targets = graph.getTargets();
+            int[] next = new int[16];
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                int areaId = frontier[i];
+                for (int j = graph.rowStart(areaId); j < graph.rowEnd(areaId); j++) {
+                    int target = targets[j];
+                    // Connections can point at areas that have since been removed.
+                    if (!graph.hasArea(target) || !claim(target)) {
+                        continue;
+                    }
+                    if (count == next.length) {
+                        next = Arrays.copyOf(next, count * 2);
+                    }
+                    next[count++] = target;
+                }
+            }
+            return Arrays.copyOf(next, count);
+        }
+    }
+
+    public static void main(String[] args) {
+        // A random layout of a million areas with three connections each on
+        // average, searched once on one thread and then on pools of 1 to 8.
+        Zoo zoo = new Zoo();
+        Random random = new Random(1);
+        int areaCount = 1000000;
+        for (int i = 0; i < areaCount; i++) {
+            zoo.addArea(new PicnicArea());
+        }
+        for (int i = 0; i < 3 * areaCount; i++) {
+            zoo.connectAreas(random.nextInt(areaCount + 1), random.nextInt(areaCount + 1));
+        }
+        AreaRegistry areas = (AreaRegistry) zoo.getAreas();
+        System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            long time = System.nanoTime();
+            BitSet sequential = new BitSet();
+            new Reachability().reach(areas, sequential, 0, null);
+            long sequentialTime = System.nanoTime() - time;
+            time = System.nanoTime();
+            GraphSnapshot graph = zoo.snapshotGraph();
+            long snapshotTime = System.nanoTime() - time;
+            StringBuilder line = new StringBuilder();
+            for (int threads = 1; threads <= 8; threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                time = System.nanoTime();
+                BitSet parallel = new ParallelReachability(graph).reach(0, pool);
+                time = System.nanoTime() - time;
+                pool.shutdown();
+                assert (parallel.equals(sequential));
+                line.append(String.format(", %d threads %d ms", threads, time / 1000000));
+            }
+            System.out.printf("%d areas reached: Reachability %d ms, snapshot %d ms%s%n", sequential.cardinality(),
+                    sequentialTime / 1000000, snapshotTime / 1000000, line);
+        }
+    }
+}
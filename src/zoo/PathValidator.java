@@ -0,0 +1,132 @@
+package zoo;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import dataStructures.IConnections;
+
+/**
+ * Checks visitor paths against the one-way system. Used by Zoo.isPathAllowed for
+ * single paths and by Zoo.arePathsAllowed for large batches, which can be split
+ * between the threads of a ForkJoinPool.
+ *
+ * A batch is given as one flat array of areaIds plus an array of offsets: path k
+ * is areaIds[offsets[k]] up to areaIds[offsets[k + 1]], so offsets has one more
+ * entry than there are paths.
+ */
+public class PathValidator {
+
+    /**
+     * Batches are split into chunks of this many paths. A multiple of 64 so that
+     * each chunk writes whole words of the result.
+     */
+    private static final int CHUNK_SIZE = 64 * 64;
+
+    /**
+     * Checks one path. An empty path is not allowed and a path of one area always
+     * is, as in the original isPathAllowed.
+     *
+     * @param connections the connections the path must follow.
+     * @param areaIds     the array holding the path.
+     * @param start       the index in areaIds where the path starts.
+     * @param end         the index in areaIds just after the path ends.
+     * @return true if each area in the path connects to the next one.
+     */
+    public static boolean isPathAllowed(IConnections connections, int[] areaIds, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        for (int i = start; i < end - 1; i++) {
+            if (!connections.hasConnection(areaIds[i], areaIds[i + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks a batch of paths.
+     *
+     * @param connections the connections the paths must follow. Must not change
+     *                    while the batch is checked, e.g. a GraphSnapshot.
+     * @param areaIds     every path, one after another.
+     * @param offsets     where each path starts in areaIds, plus the end of the
+     *                    last path.
+     * @param pool        the pool to check the paths on, or null to check them on
+     *                    the calling thread.
+     * @return a bit for each path, set if that path is allowed.
+     */
+    public static BitSet arePathsAllowed(IConnections connections, int[] areaIds, int[] offsets,
+            ForkJoinPool pool) {
+        int pathCount = offsets.length - 1;
+        long[] words = new long[(pathCount + 63) / 64];
+        BatchTask task = new BatchTask(connections, areaIds, offsets, words, 0, pathCount);
+        if (pool == null) {
+            task.check();
+        } else {
+            pool.invoke(task);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Checks a range of paths in a batch, splitting it in half until it is no
+     * bigger than CHUNK_SIZE.
+     */
+    private static class BatchTask extends RecursiveAction {
+
+        /**
+         * Tasks are never serialized; declared to keep the compiler quiet.
+         */
+        private static final long serialVersionUID = 1L;
+
+        private final IConnections connections;
+        private final int[] areaIds;
+        private final int[] offsets;
+
+        /**
+         * The result bits. Each task only writes the words for its own paths.
+         */
+        private final long[] words;
+
+        /**
+         * The paths this task checks, from firstPath up to endPath.
+         */
+        private final int firstPath;
+        private final int endPath;
+
+        BatchTask(IConnections connections, int[] areaIds, int[] offsets, long[] words, int firstPath,
+                int endPath) {
+            this.connections = connections;
+            this.areaIds = areaIds;
+            this.offsets = offsets;
+            this.words = words;
+            this.firstPath = firstPath;
+            this.endPath = endPath;
+        }
+
+        @Override
+        protected void compute() {
+            if (endPath - firstPath <= CHUNK_SIZE) {
+                check();
+                return;
+            }
+            // Split on a multiple of CHUNK_SIZE so no word is shared by two tasks.
+            int middle = firstPath + ((endPath - firstPath - 1) / 2 / CHUNK_SIZE + 1) * CHUNK_SIZE;
+            invokeAll(new BatchTask(connections, areaIds, offsets, words, firstPath, middle),
+                    new BatchTask(connections, areaIds, offsets, words, middle, endPath));
+        }
+
+        /**
+         * Checks every path in this task's range on the calling thread.
+         */
+        void check() {
+            for (int path = firstPath; path < endPath; path++) {
+                if (isPathAllowed(connections, areaIds, offsets[path], offsets[path + 1])) {
+                    words[path >>> 6] |= 1L << path;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package zoo;
+
+import java.util.BitSet;
+
+import areas.Area;
+import dataStructures.AreaRegistry;
+
+/**
+ * Iterative breadth-first search over the areas of a zoo. Replaces the old
+ * recursive search, which overflowed the stack on long one-way chains and
+ * scanned an ArrayList on every step.
+ */
+public class Reachability {
+
+    /**
+     * Work queue of areaIds waiting to be searched. Kept between calls so a
+     * search only allocates when the zoo has grown.
+     */
+    private int[] queue = new int[16];
+
+    /**
+     * Marks every area that can be reached from startAreaId and is not already
+     * marked. Areas that are already marked are not searched again, so a set of
+     * reached areas can be extended from a new starting point.
+     *
+     * @param areas       the areas of the zoo.
+     * @param reached     the areaIds reached so far. Updated in place.
+     * @param startAreaId the area the search starts from. Ignored if it does not
+     *                    exist or is already marked.
+     * @param dangling    if not null, every areaId that a reached area connects
+     *                    to but that has no area is marked in it.
+     */
+    public void reach(AreaRegistry areas, BitSet reached, int startAreaId, BitSet dangling) {
+        if (startAreaId < 0 || reached.get(startAreaId) || areas.getArea(startAreaId) == null) {
+            return;
+        }
+        if (queue.length < areas.size()) {
+            queue = new int[Math.max(areas.size(), queue.length * 2)];
+        }
+        int head = 0;
+        int tail = 0;
+        reached.set(startAreaId);
+        queue[tail++] = startAreaId;
+        while (head < tail) {
+            int[] areaIds = Area.adjacentAreaIdsOf(areas.getArea(queue[head++]));
+            for (int i = 0; i < areaIds.length; i++) {
+                int areaId = areaIds[i];
+                // Connections can point at areas that have since been removed.
+                if (areaId < 0 || reached.get(areaId)) {
+                    continue;
+                }
+                if (areas.getArea(areaId) == null) {
+                    if (dangling != null) {
+                        dangling.set(areaId);
+                    }
+                    continue;
+                }
+                reached.set(areaId);
+                queue[tail++] = areaId;
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package zoo;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import dataStructures.AreaRegistry;
+
+/**
+ * Keeps the set of areas reachable from the entrance up to date as the zoo is
+ * edited, so findUnreachableAreas does not have to search the whole zoo every
+ * time. New connections and new areas only extend the set from where they were
+ * added. Removing a reachable area, or changing the areas HashMap directly,
+ * makes the set stale and it is searched again from the entrance on the next
+ * lookup.
+ *
+ * Connections changed directly on an Area instead of through Zoo.connectAreas
+ * also make the set stale, since every Area tells the AreaRegistry it is stored
+ * in when its connections change. Edits to areas in other zoos, or to areas not
+ * in any zoo, leave the set alone.
+ * Changes made on an IArea that is not an Area are not seen until the set is
+ * next searched again.
+ */
+public class ReachabilityTracker {
+
+    /**
+     * The search used to extend reached.
+     */
+    private Reachability reachability = new Reachability();
+
+    /**
+     * The areaIds reachable from the entrance.
+     */
+    private BitSet reached = new BitSet();
+
+    /**
+     * areaIds that a reachable area connects to but that have no area. If an area
+     * is added with one of these ids it is reachable straight away.
+     */
+    private BitSet dangling = new BitSet();
+
+    /**
+     * The version of the areas HashMap that reached was last brought up to date
+     * with.
+     */
+    private int version;
+
+    /**
+     * The connection version of the areas when reached was last brought up to
+     * date.
+     */
+    private int connectionVersion;
+
+    /**
+     * True when reached has to be searched again from the entrance.
+     */
+    private boolean stale = true;
+
+    /**
+     * @param areas the areas of the zoo.
+     * @return true if the tracked set matches the areas as they are now.
+     */
+    public boolean isCurrent(AreaRegistry areas) {
+        return !stale && version == areas.getVersion() && connectionVersion == areas.getConnectionVersion();
+    }
+
+    /**
+     * Updates the set after an area has been added. Should only be called if the
+     * set was current before the area was added.
+     *
+     * @param areas  the areas of the zoo.
+     * @param areaId the areaId of the added area.
+     */
+    public void areaAdded(AreaRegistry areas, int areaId) {
+        if (areaId == 0 || dangling.get(areaId)) {
+            dangling.clear(areaId);
+            reachability.reach(areas, reached, areaId, dangling);
+        }
+        version = areas.getVersion();
+        connectionVersion = areas.getConnectionVersion();
+    }
+
+    /**
+     * Updates the set after an area has been removed. Should only be called if
+     * the set was current before the area was removed. Removing an unreachable
+     * area cannot change what is reachable; removing a reachable one makes the
+     * set stale.
+     *
+     * @param areas  the areas of the zoo.
+     * @param areaId the areaId of the removed area.
+     */
+    public void areaRemoved(AreaRegistry areas, int areaId) {
+        if (areaId >= 0 && reached.get(areaId)) {
+            stale = true;
+            return;
+        }
+        version = areas.getVersion();
+        connectionVersion = areas.getConnectionVersion();
+    }
+
+    /**
+     * Updates the set after a connection has been made. Should only be called if
+     * the set was current before the connection was made. Only searches from the
+     * new connection, and only if it leads out of the reachable set.
+     *
+     * @param areas      the areas of the zoo.
+     * @param fromAreaId the area the connection starts from.
+     * @param toAreaId   the area the connection goes to.
+     */
+    public void connected(AreaRegistry areas, int fromAreaId, int toAreaId) {
+        if (fromAreaId >= 0 && reached.get(fromAreaId)) {
+            reachability.reach(areas, reached, toAreaId, dangling);
+        }
+        connectionVersion = areas.getConnectionVersion();
+    }
+
+    /**
+     * Makes the next lookup search again from the entrance. Used after
+     * connections have been changed in bulk.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * @param areas the areas of the zoo.
+     * @return the non-negative areaIds of areas that cannot be reached from the
+     *         entrance, in ascending order.
+     */
+    public ArrayList<Integer> unreachableAreas(AreaRegistry areas) {
+        if (!isCurrent(areas)) {
+            reached.clear();
+            dangling.clear();
+            reachability.reach(areas, reached, 0, dangling);
+            version = areas.getVersion();
+            connectionVersion = areas.getConnectionVersion();
+            stale = false;
+        }
+        BitSet unreachable = (BitSet) areas.getAreaIdSet().clone();
+        unreachable.andNot(reached);
+        ArrayList<Integer> unreachableAreas = new ArrayList<Integer>(unreachable.cardinality());
+        for (int i = unreachable.nextSetBit(0); i >= 0; i = unreachable.nextSetBit(i + 1)) {
+            unreachableAreas.add(i);
+        }
+        return unreachableAreas;
+    }
+}
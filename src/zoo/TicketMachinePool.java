@@ -0,0 +1,270 @@
+package zoo;
+
+import dataStructures.CashCount;
+import dataStructures.ICashCount;
+
+import java.util.Random;
+
+/**
+ * The ticket machines at every gate of the zoo, each with its own stock. A sale
+ * goes to the gate's own machine if it looks able to give the change. Otherwise
+ * it is sent to the machine with the most cash that looks able to, so a visitor
+ * is not turned away while another machine could serve them.
+ *
+ * Whether a machine looks able to give change is decided from a cheap summary
+ * of its stock: the total value and whether it has any coin that can make an
+ * odd multiple of 10p. The summary can be wrong when other sales are running,
+ * so the sale itself may still fail, in which case the next best machine is
+ * tried. Each machine is lock free, so sales at different gates run in parallel.
+ */
+public class TicketMachinePool {
+
+    /**
+     * The most machines a pool can hold, one per bit of the long used to remember
+     * which machines a sale has already tried.
+     */
+    public static final int MAX_MACHINES = 64;
+
+    /**
+     * The machine at each gate.
+     */
+    private final ConcurrentTicketMachine[] machines;
+
+    /**
+     * TicketMachinePool constructor. Every machine starts empty with no fee.
+     *
+     * @param machineCount the number of gates.
+     * @throws IllegalArgumentException machineCount is not between 1 and
+     *                                  MAX_MACHINES.
+     */
+    public TicketMachinePool(int machineCount) {
+        if (machineCount < 1 || machineCount > MAX_MACHINES) {
+            throw new IllegalArgumentException("Must have between 1 and " + MAX_MACHINES + " machines.");
+        }
+        machines = new ConcurrentTicketMachine[machineCount];
+        for (int i = 0; i < machineCount; i++) {
+            machines[i] = new ConcurrentTicketMachine();
+        }
+    }
+
+    /**
+     * @return the number of machines in the pool.
+     */
+    public int size() {
+        return machines.length;
+    }
+
+    /**
+     * @param gate the gate of the machine.
+     * @return the machine at that gate.
+     */
+    public ConcurrentTicketMachine getMachine(int gate) {
+        return machines[gate];
+    }
+
+    /**
+     * Sets the entrance fee on every machine.
+     *
+     * @param pounds the number of pounds the entrance fee will be set at.
+     * @param pence  the number of pence the entrance fee will be set at.
+     */
+    public void setEntranceFee(int pounds, int pence) {
+        for (ConcurrentTicketMachine machine : machines) {
+            machine.setEntranceFee(pounds, pence);
+        }
+    }
+
+    /**
+     * Chooses how change is worked out on every machine.
+     *
+     * @param strategy the change strategy to use. Must be safe to call from
+     *                 several threads at once.
+     */
+    public void setChangeStrategy(IChangeStrategy strategy) {
+        for (ConcurrentTicketMachine machine : machines) {
+            machine.setChangeStrategy(strategy);
+        }
+    }
+
+    /**
+     * Stocks one machine.
+     *
+     * @param gate  the gate of the machine.
+     * @param coins the cash to be stored in the machine.
+     */
+    public void setCashSupply(int gate, ICashCount coins) {
+        machines[gate].setCashSupply(coins);
+    }
+
+    /**
+     * @return the cash in every machine added together.
+     */
+    public ICashCount getCashSupply() {
+        CashCount total = new CashCount();
+        for (ConcurrentTicketMachine machine : machines) {
+            for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                total.set(i, total.get(i) + machine.getCount(i));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Pays the entrance fee at a gate, using another machine if the gate's own
+     * machine cannot give the change. Safe to call from many threads at once.
+     *
+     * @param gate         the gate the visitor is at.
+     * @param cashInserted the cash inserted into the machine.
+     * @return the change, or cashInserted if it is not enough to pay for the fee
+     *         or no machine can give the change.
+     */
+    public ICashCount payEntranceFee(int gate, ICashCount cashInserted) {
+        int[] inserted = new int[CashCount.DENOMINATION_COUNT];
+        int valueInsertedPence = 0;
+        for (int i = 0; i < inserted.length; i++) {
+            inserted[i] = CashCount.countOf(cashInserted, i);
+            valueInsertedPence += inserted[i] * CashCount.penceOf(i);
+        }
+        int home = gate % machines.length;
+        int changePence = valueInsertedPence - machines[home].getEntranceFeePence();
+        if (changePence < 0) {
+            return cashInserted;
+        }
+        long tried = 0;
+        int next = looksAbleToPay(machines[home], changePence, inserted) >= 0 ? home : bestMachine(changePence,
+                inserted, tried);
+        while (next >= 0) {
+            ICashCount change = machines[next].payEntranceFee(cashInserted);
+            if (change != cashInserted) {
+                return change;
+            }
+            tried |= 1L << next;
+            next = bestMachine(changePence, inserted, tried);
+        }
+        return cashInserted;
+    }
+
+    /**
+     * Finds the untried machine with the most cash that looks able to give the
+     * change.
+     *
+     * @param changePence the change to give, in pence.
+     * @param inserted    the count of each denomination inserted.
+     * @param tried       bit g is set if the machine at gate g has been tried.
+     * @return the gate of that machine, or -1 if there is none.
+     */
+    private int bestMachine(int changePence, int[] inserted, long tried) {
+        int best = -1;
+        long bestPence = -1;
+        for (int g = 0; g < machines.length; g++) {
+            if ((tried & (1L << g)) != 0) {
+                continue;
+            }
+            long pence = looksAbleToPay(machines[g], changePence, inserted);
+            if (pence > bestPence) {
+                best = g;
+                bestPence = pence;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Summarises a machine's stock to guess whether it can give some change
+     * without working the change out.
+     *
+     * @param machine     the machine.
+     * @param changePence the change to give, in pence.
+     * @param inserted    the count of each denomination inserted, which can be
+     *                    given back as change too.
+     * @return the value of the cash the machine could give from, or -1 if it
+     *         certainly cannot give the change.
+     */
+    private static long looksAbleToPay(ConcurrentTicketMachine machine, int changePence, int[] inserted) {
+        long totalPence = 0;
+        boolean hasOddTen = false;
+        for (int i = 0; i < inserted.length; i++) {
+            int count = machine.getCount(i) + inserted[i];
+            totalPence += (long) count * CashCount.penceOf(i);
+            // Only 10p and 50p are an odd number of 10ps.
+            if (count > 0 && CashCount.penceOf(i) % 20 == 10) {
+                hasOddTen = true;
+            }
+        }
+        if (totalPence < changePence || (changePence % 20 == 10 && !hasOddTen)) {
+            return -1;
+        }
+        return totalPence;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // A gate that cannot give change sends the visitor to one that can.
+        TicketMachinePool pool = new TicketMachinePool(3);
+        pool.setEntranceFee(3, 70);
+        CashCount coins = new CashCount();
+        coins.setNrCoins_10p(5);
+        coins.setNrCoins_20p(5);
+        pool.setCashSupply(2, coins);
+        CashCount fiver = new CashCount();
+        fiver.setNrNotes_5pounds(1);
+        ICashCount change = pool.payEntranceFee(0, fiver);
+        assert (change != fiver);
+        assert (CashCount.countOf(change, CashCount.TWENTY_P_COIN) == 5);
+        assert (CashCount.countOf(change, CashCount.TEN_P_COIN) == 3);
+        assert (pool.getMachine(2).getCount(CashCount.FIVE_POUND_NOTE) == 1);
+        assert (pool.getMachine(0).getCount(CashCount.FIVE_POUND_NOTE) == 0);
+        // No machine has 1.30 in change left.
+        assert (pool.payEntranceFee(1, fiver) == fiver);
+        // Not enough to pay.
+        CashCount pound = new CashCount();
+        pound.setNrCoins_1pound(1);
+        assert (pool.payEntranceFee(2, pound) == pound);
+
+        // Conservation of cash across the pool with every gate busy.
+        final TicketMachinePool busy = new TicketMachinePool(8);
+        busy.setChangeStrategy(new OptimalChange());
+        busy.setEntranceFee(2, 30);
+        for (int g = 0; g < busy.size(); g++) {
+            CashCount supply = new CashCount();
+            for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                supply.set(i, g % 2 == 0 ? 10 : 0);
+            }
+            busy.setCashSupply(g, supply);
+        }
+        final long[][] kept = new long[busy.size()][CashCount.DENOMINATION_COUNT];
+        Thread[] threads = new Thread[busy.size()];
+        for (int g = 0; g < threads.length; g++) {
+            final int gate = g;
+            threads[g] = new Thread() {
+                public void run() {
+                    Random random = new Random(gate);
+                    for (int n = 0; n < 20000; n++) {
+                        CashCount inserted = new CashCount();
+                        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                            inserted.set(i, random.nextInt(3) == 0 ? random.nextInt(3) : 0);
+                        }
+                        ICashCount returned = busy.payEntranceFee(gate, inserted);
+                        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                            kept[gate][i] += inserted.get(i) - CashCount.countOf(returned, i);
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ICashCount finalSupply = busy.getCashSupply();
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            long expected = 10 * (busy.size() / 2);
+            for (int g = 0; g < busy.size(); g++) {
+                expected += kept[g][i];
+            }
+            assert (CashCount.countOf(finalSupply, i) == expected) : i + ": " + CashCount.countOf(finalSupply, i)
+                    + " != " + expected;
+        }
+    }
+}
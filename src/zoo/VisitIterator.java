@@ -0,0 +1,76 @@
+package zoo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import animals.Animal;
+import areas.AnimalHabitat;
+import areas.IArea;
+import dataStructures.AreaRegistry;
+
+/**
+ * Gives the nicknames of the animals seen along a path one at a time, in the same
+ * order as Zoo.visit, without building a list of them. Habitats are only looked
+ * at when the iterator reaches them, so animals added to a habitat before then
+ * are seen. The path is not checked; Zoo.visitIterator does that first.
+ */
+public class VisitIterator implements Iterator<String> {
+
+    /**
+     * The areas of the zoo.
+     */
+    private final AreaRegistry areas;
+
+    /**
+     * The areaIds of the path, in the order they are visited.
+     */
+    private final int[] path;
+
+    /**
+     * The index in path of the next area to look at.
+     */
+    private int nextArea;
+
+    /**
+     * The animals of the habitat currently being walked, or null.
+     */
+    private ArrayList<Animal> animals;
+
+    /**
+     * The index in animals of the next animal to give.
+     */
+    private int nextAnimal;
+
+    /**
+     * VisitIterator constructor.
+     *
+     * @param areas the areas of the zoo.
+     * @param path  the areaIds of the path, in the order they are visited.
+     */
+    public VisitIterator(AreaRegistry areas, int[] path) {
+        this.areas = areas;
+        this.path = path;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (animals == null || nextAnimal >= animals.size()) {
+            if (nextArea >= path.length) {
+                return false;
+            }
+            IArea area = areas.getArea(path[nextArea++]);
+            animals = area instanceof AnimalHabitat ? ((AnimalHabitat) area).getAnimals() : null;
+            nextAnimal = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return animals.get(nextAnimal++).getNickname();
+    }
+}
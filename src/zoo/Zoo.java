@@ -1,11 +1,14 @@
 package zoo;
 
 import animals.Animal;
+import animals.Gazelle;
+import animals.Lion;
 import animals.Zebra;
 import animals.Seal;
 import animals.Shark;
 import animals.Starfish;
 import areas.AnimalHabitat;
+import areas.Area;
 import areas.Enclosure;
 import areas.Aquarium;
 import areas.Entrance;
@@ -13,11 +16,28 @@ import areas.HumanArea;
 import areas.IArea;
 import areas.PicnicArea;
 import dataStructures.ICashCount;
+import dataStructures.IIdAllocator;
+import dataStructures.AreaRegistry;
+import dataStructures.BitSetIdAllocator;
 import dataStructures.CashCount;
-
-import java.lang.reflect.Array;
+import dataStructures.GraphSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
 
 /**
  * The implementation of ICashCount. Stores Areas and CashCounts (Ticket machines).
@@ -26,7 +46,9 @@ public class Zoo implements IZoo {
 
     /**
      * The values of each cash denomination in pence. This reduces code duplication
-     * when used in conjuction with getNrCash and setNrCash.
+     * when used in conjuction with getNrCash and setNrCash. Indexed the same as
+     * CashCount, but a separate copy: the sale itself reads CashCount.penceOf,
+     * so changing an element here cannot change what the machine charges.
      */
     public static final Integer CASH_VALUES[] = new Integer[] { 
         2000, 1000, 500, 200, 100, 50, 20, 10 
@@ -34,25 +56,62 @@ public class Zoo implements IZoo {
 
     /**
      * HashMap representing the areas in the zoo. Stores the areaIds as a key and
-     * the IArea objects as a value.
+     * the IArea objects as a value. Keeps its IIdAllocator in sync so free
+     * areaIds are found without probing.
      */
-    private HashMap<Integer, IArea> areas = new HashMap<Integer, IArea>();
+    private AreaRegistry areas;
 
     /**
      * ICashCount representing the cash inside the cash machine.
      */
-    private ICashCount cashCount = new CashCount();
+    private CashCount cashCount = new CashCount();
+
+    /**
+     * The areas reachable from the entrance, kept up to date by addArea,
+     * removeArea and connectAreas.
+     */
+    private ReachabilityTracker reachable = new ReachabilityTracker();
 
     /**
      * Integer representing the entrance fee in pence.
      */
     private int entranceFeePence;
 
+    /**
+     * Decides which notes and coins to give as change.
+     */
+    private IChangeStrategy changeStrategy = new GreedyChange();
+
+    /**
+     * Working space for a sale, reused so paying the entrance fee does not
+     * allocate. Indexed like CASH_VALUES.
+     */
+    private final int[] insertedScratch = new int[CashCount.DENOMINATION_COUNT];
+    private final int[] stockScratch = new int[CashCount.DENOMINATION_COUNT];
+    private final int[] changeScratch = new int[CashCount.DENOMINATION_COUNT];
+    private final int[] deltaScratch = new int[CashCount.DENOMINATION_COUNT];
+
+    /**
+     * Records every change to cashCount before it is made, or null.
+     */
+    private CashJournal journal;
+
     /**
      * Zoo constructor. All zoos must have an entrance. The constructor means every
      * zoo is created with an entrance.
      */
     public Zoo() {
+        this(new BitSetIdAllocator(1));
+    }
+
+    /**
+     * Zoo constructor with a chosen areaId allocator. The allocator must hand out
+     * the lowest free areaId starting from 1, as 0 is kept for the entrance.
+     * 
+     * @param allocator the allocator used to generate areaIds.
+     */
+    public Zoo(IIdAllocator allocator) {
+        areas = new AreaRegistry(allocator);
         Entrance entrance = new Entrance();
         addArea(entrance);
     }
@@ -68,11 +127,7 @@ public class Zoo implements IZoo {
         if (area instanceof Entrance) {
             return 0;
         }
-        int areaId = 1;
-        while (areas.containsKey(areaId)) {
-            areaId++;
-        }
-        return areaId;
+        return areas.nextFreeId();
     }
 
     /**
@@ -85,11 +140,17 @@ public class Zoo implements IZoo {
      *                                  zoo.
      */
     public int addArea(IArea area) {
-        if (areas.containsValue(area)) {
+        if (areas.containsArea(area)) {
             throw new IllegalArgumentException("You cannot add an already existing area!");
         }
         int key = generateAreaId(area);
-        areas.put(key, area);
+        // Replacing an existing entrance changes its connections, so the tracker
+        // is left to go stale instead.
+        boolean tracked = reachable.isCurrent(areas) && areas.getArea(key) == null;
+        areas.putArea(key, area);
+        if (tracked) {
+            reachable.areaAdded(areas, key);
+        }
         return key;
     }
 
@@ -101,7 +162,11 @@ public class Zoo implements IZoo {
      */
     public void removeArea(int areaId) {
         if (!(getArea(areaId) instanceof Entrance)) {
-            areas.remove(areaId);
+            boolean tracked = reachable.isCurrent(areas);
+            areas.removeArea(areaId);
+            if (tracked) {
+                reachable.areaRemoved(areas, areaId);
+            }
             return;
         }
         throw new IllegalArgumentException("You cannot remove the entrance!");
@@ -114,7 +179,17 @@ public class Zoo implements IZoo {
      * @return the area associated with the areaId key in areas.
      */
     public IArea getArea(int areaId) {
-        return areas.get(areaId);
+        return areas.getArea(areaId);
+    }
+
+    /**
+     * Gets the areaId of an area in the zoo. The reverse of getArea.
+     * 
+     * @param area the area whose areaId is wanted.
+     * @return the areaId of the area, or -1 if the area is not in the zoo.
+     */
+    public int getAreaId(IArea area) {
+        return areas.getAreaId(area);
     }
 
     /**
@@ -145,23 +220,74 @@ public class Zoo implements IZoo {
      *         descriptions.
      */
     public byte addAnimal(int areaId, Animal animal) {
+        return admitAnimal(getArea(areaId), animal);
+    }
+
+    /**
+     * Attempts to add a batch of animals to one area. The area is looked up once,
+     * and each animal is checked against the animals added before it.
+     * 
+     * @param areaId  the areaId of the area the animals are being placed in.
+     * @param animals the animals, in the order they are attempted.
+     * @return the addAnimal code for each animal, in the same order.
+     */
+    public byte[] addAnimals(int areaId, List<Animal> animals) {
         IArea area = getArea(areaId);
-        Codes codes = new Codes();
-        if (area instanceof HumanArea) {
-            return codes.NOT_A_HABITAT;
-        } else if (area.getClass().getName().toString() != animal.contained()) {
-            return codes.WRONG_HABITAT;
+        byte[] results = new byte[animals.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = admitAnimal(area, animals.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Attempts to add a batch of animals to several areas. Animal i goes to area
+     * areaIds[i]. Runs of animals for the same area only look the area up once.
+     * 
+     * @param areaIds the areaId each animal is being placed in.
+     * @param animals the animals, in the order they are attempted.
+     * @return the addAnimal code for each animal, in the same order.
+     * @throws IllegalArgumentException areaIds and animals are not the same
+     *                                  length.
+     */
+    public byte[] addAnimals(int[] areaIds, List<Animal> animals) {
+        if (areaIds.length != animals.size()) {
+            throw new IllegalArgumentException("There must be one areaId per animal.");
+        }
+        byte[] results = new byte[areaIds.length];
+        IArea area = null;
+        for (int i = 0; i < results.length; i++) {
+            if (i == 0 || areaIds[i] != areaIds[i - 1]) {
+                area = getArea(areaIds[i]);
+            }
+            results[i] = admitAnimal(area, animals.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Attempts to add an animal to an area that has already been looked up.
+     * Shared by addAnimal and addAnimals so they give the same codes.
+     * 
+     * @param area   the area, or null if there is none.
+     * @param animal the animal being attempted to be placed in the area.
+     * @return a byte specifying the outcome. See Codes.java for byte
+     *         descriptions.
+     */
+    private byte admitAnimal(IArea area, Animal animal) {
+        if (area == null || area instanceof HumanArea) {
+            return Codes.NOT_A_HABITAT;
+        } else if (!animal.habitat().isInstance(area)) {
+            return Codes.WRONG_HABITAT;
         }
         AnimalHabitat habitat = (AnimalHabitat) area;
-        ArrayList<Animal> animals = habitat.getAnimals();
         if (habitat.isHabitatFull()) {
-            return codes.HABITAT_FULL;
-        } else if (!isAnimalCompatibleWithOthers(animal, animals)) {
-            return codes.INCOMPATIBLE_INHABITANTS;
+            return Codes.HABITAT_FULL;
+        } else if (!habitat.isCompatibleWithAnimals(animal)) {
+            return Codes.INCOMPATIBLE_INHABITANTS;
         } else {
-            animals.add(animal);
-            habitat.setAnimals(animals);
-            return codes.ANIMAL_ADDED;
+            habitat.addAnimal(animal);
+            return Codes.ANIMAL_ADDED;
         }
     }
 
@@ -176,13 +302,43 @@ public class Zoo implements IZoo {
      * @throws IllegalArgumentException one or both of fromAreaId and toAreaId do not exist.
      */
     public void connectAreas(int fromAreaId, int toAreaId) {
-        if (areas.get(fromAreaId).getAdjacentAreas().contains(toAreaId)) {
+        IArea from = areas.getArea(fromAreaId);
+        if (from == null || areas.getArea(toAreaId) == null) {
+            throw new IllegalArgumentException("At least one argument does not exist in areas.");
+        }
+        if (Area.isAdjacent(from, toAreaId)) {
             return;
         }
-        if (!areas.containsKey(fromAreaId) || !areas.containsKey(toAreaId)) {
-            throw new IllegalArgumentException("At least one argument does not exist in areas.");
+        boolean tracked = reachable.isCurrent(areas);
+        from.addAdjacentArea(toAreaId);
+        if (tracked) {
+            reachable.connected(areas, fromAreaId, toAreaId);
         }
-        areas.get(fromAreaId).addAdjacentArea(toAreaId);
+    }
+
+    /**
+     * Adds the areas and connections in a layout file in one go. Much faster than
+     * calling addArea and connectAreas for each one. See LayoutImporter for the
+     * file format. If the file has a mistake, the zoo is not changed.
+     * 
+     * @param file the layout file.
+     * @return the number of different connections in the file.
+     * @throws IOException the file can not be read or has a mistake in it.
+     */
+    public int importLayout(Path file) throws IOException {
+        int connections = new LayoutImporter(areas).importFile(file);
+        reachable.invalidate();
+        return connections;
+    }
+
+    /**
+     * Takes a frozen copy of all connections in the zoo, for traversals that do
+     * lots of reads on a layout that is not being edited.
+     * 
+     * @return the snapshot. Later changes to the zoo are not seen by it.
+     */
+    public GraphSnapshot snapshotGraph() {
+        return new GraphSnapshot(areas);
     }
 
     /**
@@ -191,24 +347,26 @@ public class Zoo implements IZoo {
      * @param areaIds the ArrayList of areaIds that represent the path order.
      * @return true if the areaId is the last in the areaIds list. If at any point
      *         in the loop the areaId is not adjacent to the next areaId in areaIds,
-     *         it returns false.
+     *         or does not exist, it returns false.
      */
     public boolean isPathAllowed(ArrayList<Integer> areaIds) {
+        int[] path = toAreaIdArray(areaIds);
+        return PathValidator.isPathAllowed(areas, path, 0, path.length);
+    }
 
-        for (int i = 0; i < areaIds.size(); i++) {
-            if (i == areaIds.size() - 1) {
-                // Is the current area the final area of the path.
-                if (areaIds.get(i) == areaIds.get(areaIds.size() - 1)) {
-                    return true;
-                }
-                return false;
-            }
-            // Is the next area of the path in the adjacent area of the current area.
-            if (!areas.get(areaIds.get(i)).getAdjacentAreas().contains(areaIds.get(i + 1))) {
-                return false;
-            }
-        }
-        return false;
+    /**
+     * Checks a batch of paths at once against a snapshot of the zoo's
+     * connections. See PathValidator for how the paths are laid out.
+     * 
+     * @param areaIds every path, one after another.
+     * @param offsets where each path starts in areaIds, plus the end of the last
+     *                path.
+     * @param pool    the pool to check the paths on, or null to check them on the
+     *                calling thread.
+     * @return a bit for each path, set if isPathAllowed would return true for it.
+     */
+    public BitSet arePathsAllowed(int[] areaIds, int[] offsets, ForkJoinPool pool) {
+        return PathValidator.arePathsAllowed(snapshotGraph(), areaIds, offsets, pool);
     }
 
     /**
@@ -222,51 +380,88 @@ public class Zoo implements IZoo {
      */
 
     public ArrayList<String> visit(ArrayList<Integer> areaIdsVisited) {
-        if (!isPathAllowed(areaIdsVisited)) {
+        ArrayList<String> names = new ArrayList<String>();
+        if (!visitInto(toAreaIdArray(areaIdsVisited), names)) {
             return null;
         }
-        ArrayList<String> names = new ArrayList<String>();
-        for (int i = 0; i < areaIdsVisited.size(); i++) {
-            if (areas.get(areaIdsVisited.get(i)) instanceof AnimalHabitat) {
-                AnimalHabitat aH = (AnimalHabitat) areas.get(areaIdsVisited.get(i));
-                // Add all of the animal nicknames in each animal habitat to names.
-                for (int j = 0; j < aH.getAnimals().size(); j++) {
-                    names.add(aH.getAnimals().get(j).getNickname());
+        return names;
+    }
+
+    /**
+     * Checks a path and collects the nicknames seen along it in a single pass, so
+     * each area is only looked up once. If a hop turns out not to be allowed, the
+     * nicknames already added are taken out of names again.
+     * 
+     * @param path  the areaIds of the path, in the order they are visited.
+     * @param names the list the nicknames are added to.
+     * @return true if the path is allowed. If false, names is as it was before.
+     */
+    public boolean visitInto(int[] path, ArrayList<String> names) {
+        if (path.length == 0) {
+            return false;
+        }
+        int namesBefore = names.size();
+        for (int i = 0; i < path.length; i++) {
+            IArea area = areas.getArea(path[i]);
+            if (i < path.length - 1 && (area == null || !Area.isAdjacent(area, path[i + 1]))) {
+                names.subList(namesBefore, names.size()).clear();
+                return false;
+            }
+            if (area instanceof AnimalHabitat) {
+                ArrayList<Animal> animals = ((AnimalHabitat) area).getAnimals();
+                for (int j = 0; j < animals.size(); j++) {
+                    names.add(animals.get(j).getNickname());
                 }
             }
         }
-        return names;
+        return true;
     }
 
     /**
-     * Initiates a depth-first tree search of the areas in the zoo through
-     * recursion. When an area is reached, it is removed from unreachableAreas.
+     * The streaming version of visit. Checks the path straight away, but only
+     * walks each habitat when the iterator gets to it, so no list of nicknames is
+     * built.
      * 
-     * @param unreachableAreas the list of areas that have not been discovered at
-     *                         that point by the search.
-     * @param areaId           the area that is being searched for adjacent areas.
+     * @param areaIdsVisited the path the visitor takes across the zoo.
+     * @return an iterator over the nicknames of animals the visitor sees, in the
+     *         same order as visit, or null if the path is not allowed.
      */
-    public void unreachableAreasRec(ArrayList<Integer> unreachableAreas, Integer areaId) {
-        if (!unreachableAreas.contains(areaId)) {
-            return;
-        }
-        unreachableAreas.remove(areaId);
-        ArrayList<Integer> areaIds = areas.get(areaId).getAdjacentAreas();
-        for (int i = 0; i < areaIds.size(); i++) {
-            unreachableAreasRec(unreachableAreas, areaIds.get(i));
+    public Iterator<String> visitIterator(ArrayList<Integer> areaIdsVisited) {
+        int[] path = toAreaIdArray(areaIdsVisited);
+        if (!PathValidator.isPathAllowed(areas, path, 0, path.length)) {
+            return null;
         }
+        return new VisitIterator(areas, path);
     }
 
     /**
-     * Finds unreachable areas in the zoo from the entrance.
+     * Finds unreachable areas in the zoo from the entrance (areaId 0). The
+     * reachable areas are tracked as the zoo is edited, so this is normally just a
+     * lookup. Connections changed directly on an Area in this zoo are seen too.
+     * Connections changed on an IArea that is not an Area are only seen after the
+     * zoo's areas next change.
      * 
-     * @return the unreachable areas.
+     * @return the unreachable areas, in ascending order.
      */
     public ArrayList<Integer> findUnreachableAreas() {
-        ArrayList<Integer> unreachableAreas = new ArrayList<Integer>();
-        unreachableAreas.addAll(areas.keySet());
-        Integer areaId = unreachableAreas.get(0);
-        unreachableAreasRec(unreachableAreas, areaId);
+        return reachable.unreachableAreas(areas);
+    }
+
+    /**
+     * Finds unreachable areas in the zoo from the entrance, searching on several
+     * threads. Meant for very large zoos; gives the same result as
+     * findUnreachableAreas.
+     * 
+     * @param pool the pool the search runs on.
+     * @return the unreachable areas, in ascending order.
+     */
+    public ArrayList<Integer> findUnreachableAreasParallel(ForkJoinPool pool) {
+        BitSet unreachable = (BitSet) areas.getAreaIdSet().clone();
+        unreachable.andNot(new ParallelReachability(snapshotGraph()).reach(0, pool));
+        ArrayList<Integer> unreachableAreas = new ArrayList<Integer>(unreachable.cardinality());
+        for (int i = unreachable.nextSetBit(0); i >= 0; i = unreachable.nextSetBit(i + 1)) {
+            unreachableAreas.add(i);
+        }
         return unreachableAreas;
     }
 
@@ -294,13 +489,63 @@ public class Zoo implements IZoo {
 
     /**
      * Sets the amount of cash in the cash machine. Deep copy because machine is
-     * actually being stocked rather than representing another machine.
+     * actually being stocked rather than representing another machine. If there
+     * is a journal, the new supply is on the disk before this returns.
      * 
      * @param coins the ICashCount values for the cash to be stored in the machine.
      */
     public void setCashSupply(ICashCount coins) {
-        for (int i = 0; i < CASH_VALUES.length; i++) {
-            setNrCash(cashCount, CASH_VALUES[i], getNrCash(coins, CASH_VALUES[i]));
+        if (journal != null) {
+            try {
+                journal.commit(journal.snapshot(coins));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            CashCount.setCountOf(cashCount, i, CashCount.countOf(coins, i));
+        }
+    }
+
+    /**
+     * Starts recording every change to the cash supply in a journal. If the
+     * journal already has records, the cash supply is rebuilt from them, as after
+     * a crash. Otherwise the current cash supply is written as its first record.
+     * 
+     * @param cashJournal the journal to write to, or null to stop journalling.
+     */
+    public void setCashJournal(CashJournal cashJournal) {
+        journal = cashJournal;
+        if (journal == null) {
+            return;
+        }
+        if (journal.isEmpty()) {
+            setCashSupply(cashCount);
+        } else {
+            CashCount recovered = journal.getCash();
+            for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                cashCount.set(i, recovered.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes a change to the cash supply to the journal, if there is one, and
+     * commits it. Called before the machine is changed, so a sale that has
+     * returned is never lost in a crash. A Zoo sells from one thread, so each of
+     * its sales is a group of one; gates selling at once through a
+     * ConcurrentTicketMachine share their forces.
+     * 
+     * @param deltas the count added to each denomination.
+     */
+    private void journalDelta(int[] deltas) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.commit(journal.delta(deltas));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -312,29 +557,47 @@ public class Zoo implements IZoo {
     }
 
     /**
-     * Calculates the change. Goes in order from largest to smallest denominations
-     * for minimal number of change.
+     * Calculates the change using the change strategy, which by default goes in
+     * order from largest to smallest denominations for minimal number of change.
+     * The machine is only changed if the whole change can be given.
      * 
      * @param changePence     the change in pence as an integer that needs to be
      *                        returned.
      * @param cashCountChange an empty ICashCount object.
-     * @return the cashCountChange with the correct denomination of cash.
+     * @return the cashCountChange with the correct denomination of cash, or null
+     *         if the change cannot be given.
      */
     public ICashCount calculateChange(int changePence, ICashCount cashCountChange) {
-        for (int i = 0; i < CASH_VALUES.length; i++) {
-            while (changePence >= CASH_VALUES[i] && getNrCash(cashCount, CASH_VALUES[i]) >= 1) {
-                // Add cash to change, remove from machine, remove pence value.
-                setNrCash(cashCountChange, CASH_VALUES[i], getNrCash(cashCountChange, CASH_VALUES[i]) + 1);
-                setNrCash(cashCount, CASH_VALUES[i], getNrCash(cashCount, CASH_VALUES[i]) - 1);
-                changePence = changePence - CASH_VALUES[i];
-            }
+        int[] stock = stockScratch;
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            stock[i] = cashCount.get(i);
         }
-        if (changePence != 0) {
+        int[] change = changeScratch;
+        if (!changeStrategy.makeChange(changePence, stock, change)) {
             return null;
         }
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            deltaScratch[i] = -change[i];
+        }
+        journalDelta(deltaScratch);
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            // Add cash to change, remove from machine.
+            CashCount.setCountOf(cashCountChange, i, CashCount.countOf(cashCountChange, i) + change[i]);
+            cashCount.set(i, stock[i] - change[i]);
+        }
         return cashCountChange;
     }
 
+    /**
+     * Chooses how change is worked out. GreedyChange is the default;
+     * OptimalChange can give change in cases where greedy cannot.
+     * 
+     * @param strategy the change strategy to use.
+     */
+    public void setChangeStrategy(IChangeStrategy strategy) {
+        changeStrategy = strategy;
+    }
+
     /**
      * Pays the entrance fee.
      * 
@@ -344,32 +607,70 @@ public class Zoo implements IZoo {
      *         is returned. Otherwise, the correct change is returned.
      */
     public ICashCount payEntranceFee(ICashCount cashInserted) {
+        CashCount cashCountChange = new CashCount();
+        if (!payEntranceFee(cashInserted, cashCountChange)) {
+            return cashInserted;
+        }
+        return cashCountChange;
+    }
+
+    /**
+     * Pays the entrance fee, writing the change into a cash count the caller
+     * owns. The change is worked out against the machine's stock plus the cash
+     * inserted, and the machine is only changed once the change is known to be
+     * payable, so a failed sale has nothing to roll back. Reusing the same
+     * changeOut makes a sale allocation free once the change plan is cached.
+     * 
+     * @param cashInserted the ICashCount object representing the cash inserted into
+     *                     the machine.
+     * @param changeOut    overwritten with the change if the fee is paid, and left
+     *                     as it was otherwise.
+     * @return true if the fee was paid.
+     */
+    public boolean payEntranceFee(ICashCount cashInserted, ICashCount changeOut) {
+        int[] inserted = insertedScratch;
         int valueInsertedPence = 0;
         // Makes the valueInsertedPence integer equal to the sum of all coinage values
         // in the given ICashCount.
-        for (int i = 0; i < CASH_VALUES.length; i++) {
-            valueInsertedPence = valueInsertedPence + getNrCash(cashInserted, CASH_VALUES[i]) * CASH_VALUES[i];
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            inserted[i] = CashCount.countOf(cashInserted, i);
+            valueInsertedPence += inserted[i] * CashCount.penceOf(i);
         }
         if (valueInsertedPence < entranceFeePence) {
-            return cashInserted;
+            return false;
         }
-        // Put inserted money in machine
-        for (int i = 0; i < CASH_VALUES.length; i++) {
-            setNrCash(cashCount, CASH_VALUES[i],
-                    getNrCash(cashCount, CASH_VALUES[i]) + getNrCash(cashInserted, CASH_VALUES[i]));
-        }
-        int changePence = valueInsertedPence - entranceFeePence;
-        ICashCount cashCountChange = new CashCount();
-        cashCountChange = calculateChange(changePence, cashCountChange);
-        if (cashCountChange == null) {
-            // Inserted money taken out and given back.
-            for (int i = 0; i < CASH_VALUES.length; i++) {
-                setNrCash(cashCount, CASH_VALUES[i],
-                        getNrCash(cashCount, CASH_VALUES[i]) - getNrCash(cashInserted, CASH_VALUES[i]));
-            }
-            return cashInserted;
+        // The inserted money can be given back as change too.
+        int[] available = stockScratch;
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            available[i] = cashCount.get(i) + inserted[i];
         }
-        return cashCountChange;
+        int[] change = changeScratch;
+        if (!changeStrategy.makeChange(valueInsertedPence - entranceFeePence, available, change)) {
+            return false;
+        }
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            deltaScratch[i] = inserted[i] - change[i];
+        }
+        journalDelta(deltaScratch);
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            cashCount.set(i, available[i] - change[i]);
+            CashCount.setCountOf(changeOut, i, change[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Unboxes a path once so it can be walked without further unboxing.
+     * 
+     * @param areaIds the ArrayList of areaIds.
+     * @return the same areaIds as an array.
+     */
+    private static int[] toAreaIdArray(ArrayList<Integer> areaIds) {
+        int[] path = new int[areaIds.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = areaIds.get(i);
+        }
+        return path;
     }
 
     // Setters
@@ -383,39 +684,19 @@ public class Zoo implements IZoo {
      * @param coincount the number to set the cash as.
      */
     public void setNrCash(ICashCount cashCount, int type, int coincount) {
-        if (type == 2000) {
-            cashCount.setNrNotes_20pounds(coincount);
-            return;
-        }
-        if (type == 1000) {
-            cashCount.setNrNotes_10pounds(coincount);
-            return;
-        }
-        if (type == 500) {
-            cashCount.setNrNotes_5pounds(coincount);
-            return;
-        }
-        if (type == 200) {
-            cashCount.setNrCoins_2pounds(coincount);
-            return;
-        }
-        if (type == 100) {
-            cashCount.setNrCoins_1pound(coincount);
-            return;
-        }
-        if (type == 50) {
-            cashCount.setNrCoins_50p(coincount);
-            return;
-        }
-        if (type == 20) {
-            cashCount.setNrCoins_20p(coincount);
-            return;
-        }
-        if (type == 10) {
-            cashCount.setNrCoins_10p(coincount);
-            return;
+        CashCount.setCountOf(cashCount, cashIndex(type), coincount);
+    }
+
+    /**
+     * @param type the value of cash in pence.
+     * @return the index of that cash in CASH_VALUES.
+     */
+    private static int cashIndex(int type) {
+        int index = CashCount.indexOf(type);
+        if (index < 0) {
+            throw new IllegalArgumentException("Must be 2000, 1000, 500, 200, 100, 50, 20, or 10.");
         }
-        throw new IllegalArgumentException("Must be 2000, 1000, 500, 200, 100, 50, 20, or 10.");
+        return index;
     }
 
     // Getters
@@ -429,6 +710,13 @@ public class Zoo implements IZoo {
         return areas;
     }
 
+    /**
+     * @return the entrance fee in pence.
+     */
+    public int getEntranceFeePence() {
+        return entranceFeePence;
+    }
+
     /**
      * Gets the number of notes based on type input. Reduces code duplication. When
      * all notes need to be got, a for loop with this getter can be used.
@@ -438,31 +726,7 @@ public class Zoo implements IZoo {
      * @return the number of cash of the given type.
      */
     public int getNrCash(ICashCount cashCount, int type) {
-        if (type == 2000) {
-            return cashCount.getNrNotes_20pounds();
-        }
-        if (type == 1000) {
-            return cashCount.getNrNotes_10pounds();
-        }
-        if (type == 500) {
-            return cashCount.getNrNotes_5pounds();
-        }
-        if (type == 200) {
-            return cashCount.getNrCoins_2pounds();
-        }
-        if (type == 100) {
-            return cashCount.getNrCoins_1pound();
-        }
-        if (type == 50) {
-            return cashCount.getNrCoins_50p();
-        }
-        if (type == 20) {
-            return cashCount.getNrCoins_20p();
-        }
-        if (type == 10) {
-            return cashCount.getNrCoins_10p();
-        }
-        throw new IllegalArgumentException("Must be 2000, 1000, 500, 200, 100, 50, 20, or 10.");
+        return CashCount.countOf(cashCount, cashIndex(type));
     }
 
     public static void main(String[] args) {
@@ -505,6 +769,10 @@ public class Zoo implements IZoo {
         zoo.addArea(picnicArea1);
         zoo.removeArea(1);
         assert (zoo.getAreas().size() == 1) : zoo.getAreas();
+        zoo.addArea(picnicArea2);
+        zoo.addArea(picnicArea3);
+        zoo.removeArea(1);
+        assert (zoo.addArea(picnicArea1) == 1);
         zoo.getAreas().clear();
 
         // getArea
@@ -512,8 +780,58 @@ public class Zoo implements IZoo {
         assert (zoo.getArea(0) == entrance);
         zoo.addArea(picnicArea1);
         assert (zoo.getArea(1) == picnicArea1);
+        assert (zoo.getAreaId(picnicArea1) == 1);
+        assert (zoo.getAreaId(picnicArea2) == -1);
         zoo.getAreas().clear();
 
+        // Changing areas through the map's views keeps the registry in step.
+        Zoo viewed = new Zoo();
+        PicnicArea viewedArea = new PicnicArea();
+        viewed.addArea(viewedArea);
+        viewed.getAreas().keySet().remove(1);
+        assert (viewed.getArea(1) == null);
+        assert (viewed.findUnreachableAreas().isEmpty());
+        assert (viewed.addArea(viewedArea) == 1);
+        Iterator<IArea> viewedAreas = viewed.getAreas().values().iterator();
+        while (viewedAreas.hasNext()) {
+            if (viewedAreas.next() == viewedArea) {
+                viewedAreas.remove();
+            }
+        }
+        assert (viewed.getAreaId(viewedArea) == -1 && viewed.addArea(viewedArea) == 1);
+        PicnicArea replacement = new PicnicArea();
+        viewed.getAreas().replace(1, replacement);
+        assert (viewed.getArea(1) == replacement && viewed.getAreaId(viewedArea) == -1);
+        viewed.getAreas().computeIfPresent(1, new BiFunction<Integer, IArea, IArea>() {
+            public IArea apply(Integer areaId, IArea area) {
+                return null;
+            }
+        });
+        assert (viewed.getArea(1) == null && viewed.getAreas().size() == 1);
+        Iterator<Map.Entry<Integer, IArea>> viewedEntries = viewed.getAreas().entrySet().iterator();
+        viewedEntries.next();
+        viewedEntries.remove();
+        assert (viewed.getArea(0) == null);
+
+        // The map is answered from the registry's own arrays, including keys
+        // outside the dense range, and still behaves like any other Map.
+        PicnicArea negative = new PicnicArea();
+        viewed.getAreas().put(-3, negative);
+        viewed.addArea(viewedArea);
+        assert (viewed.getAreas().get(-3) == negative && viewed.getAreaId(negative) == -3);
+        assert (viewed.getAreas().equals(new HashMap<Integer, IArea>(viewed.getAreas())));
+        assert (viewed.getAreas().toString().equals("{1=" + viewedArea + ", -3=" + negative + "}"));
+        Iterator<Integer> viewedIds = viewed.getAreas().keySet().iterator();
+        viewedIds.next();
+        viewed.getAreas().remove(-3);
+        try {
+            viewedIds.next();
+            assert false;
+        } catch (java.util.ConcurrentModificationException e) {
+        }
+        viewed.getAreas().clear();
+        assert (viewed.getAreas().isEmpty() && viewed.getAreaId(viewedArea) == -1);
+
         // addAnimal
         Enclosure enclosure = new Enclosure(1);
         Zebra zebra = new Zebra("Stripes");
@@ -534,6 +852,52 @@ public class Zoo implements IZoo {
         Shark shark = new Shark("Sharky");
         assert (zoo.addAnimal(2, shark) == 4);
         assert (enclosure.getAnimals().size() == 1);
+        Enclosure largeEnclosure = new Enclosure(5) {
+        };
+        zoo.addArea(largeEnclosure);
+        assert (zoo.addAnimal(3, zebra) == 0);
+        assert (zoo.addAnimal(3, seal) == 2);
+
+        // addAnimals
+        ArrayList<Animal> batch = new ArrayList<Animal>();
+        batch.add(new Gazelle("Swift"));
+        batch.add(new Lion("Leo"));
+        batch.add(seal);
+        batch.add(new Zebra("Dash"));
+        batch.add(new Zebra("Zig"));
+        byte[] codes = zoo.addAnimals(3, batch);
+        assert (Arrays.equals(codes, new byte[] { 0, 4, 2, 0, 0 })) : Arrays.toString(codes);
+        batch.clear();
+        batch.add(new Zebra("Zag"));
+        batch.add(new Zebra("Zog"));
+        batch.add(seal);
+        codes = zoo.addAnimals(new int[] { 3, 3, 0 }, batch);
+        assert (Arrays.equals(codes, new byte[] { 0, 3, 1 })) : Arrays.toString(codes);
+        zoo.removeArea(3);
+        assert (aquarium.getSpeciesMask() == 1L << seal.getSpecies());
+        aquarium.removeAnimal(seal);
+        assert (zoo.addAnimal(2, shark) == 0);
+        aquarium.setAnimals(new ArrayList<Animal>());
+        aquarium.getAnimals().add(seal);
+        assert (zoo.addAnimal(2, shark) == 4);
+        // Changing the list in place keeps the species summary exact.
+        Starfish patrick = new Starfish("Patrick");
+        aquarium.getAnimals().set(0, patrick);
+        assert (zoo.addAnimal(2, shark) == 0);
+        aquarium.getAnimals().set(0, seal);
+        assert (aquarium.getSpeciesCount(shark.getSpecies()) == 1);
+        assert (zoo.addAnimal(2, new Shark("Jaws")) == 4);
+        for (Iterator<Animal> it = aquarium.getAnimals().iterator(); it.hasNext();) {
+            if (it.next() == seal) {
+                it.remove();
+            }
+        }
+        assert (aquarium.getSpeciesMask() == 1L << shark.getSpecies());
+        aquarium.getAnimals().subList(0, 1).set(0, seal);
+        assert (aquarium.getSpeciesMask() == 1L << seal.getSpecies());
+        aquarium.getAnimals().subList(0, 1).clear();
+        assert (aquarium.getSpeciesMask() == 0 && aquarium.getAnimals().isEmpty());
+        aquarium.getAnimals().add(seal);
         zoo.getAreas().clear();
 
         // addAdjacentAreas
@@ -546,11 +910,35 @@ public class Zoo implements IZoo {
         habitat.removeAdjacentArea(1);
         assert (habitat.getAdjacentAreas().isEmpty());
 
+        // setAdjacentAreaIds refuses an array the binary searches would misread.
+        habitat.setAdjacentAreaIds(new int[] { 2, 5 });
+        assert (habitat.hasAdjacentArea(5));
+        try {
+            habitat.setAdjacentAreaIds(new int[] { 5, 2 });
+            assert false;
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            habitat.setAdjacentAreaIds(new int[] { 2, 2 });
+            assert false;
+        } catch (IllegalArgumentException e) {
+        }
+        assert (habitat.getAdjacentAreas().equals(Arrays.asList(2, 5)));
+        habitat.setAdjacentAreaIds(new int[0]);
+
         // connectAreas
         zoo.addArea(entrance);
         zoo.addArea(enclosure);
         zoo.connectAreas(0, 1);
         assert (!entrance.getAdjacentAreas().isEmpty());
+        // The list handed out is a copy, so changing it cannot split it from the
+        // connections the zoo checks.
+        entrance.getAdjacentAreas().add(77);
+        assert (!entrance.getAdjacentAreas().contains(77) && !entrance.hasAdjacentArea(77));
+
+        GraphSnapshot snapshot = zoo.snapshotGraph();
+        assert (snapshot.hasConnection(0, 1));
+        assert (!snapshot.hasConnection(1, 0));
 
         // isPathAllowed
         ArrayList<Integer> path = new ArrayList<Integer>();
@@ -580,12 +968,31 @@ public class Zoo implements IZoo {
         path.add(3);
         assert (zoo.isPathAllowed(path));
 
+        int[] paths = new int[] { 0, 1, 3, 1, 0, 0, 1, 2 };
+        int[] offsets = new int[] { 0, 3, 5, 5, 6, 8 };
+        BitSet allowed = zoo.arePathsAllowed(paths, offsets, null);
+        assert (allowed.equals(zoo.arePathsAllowed(paths, offsets, ForkJoinPool.commonPool())));
+        assert (allowed.get(0) && !allowed.get(1) && !allowed.get(2) && allowed.get(3) && !allowed.get(4));
+
         // visit
         zoo.connectAreas(3, 2);
         path.add(2);
         Starfish starfish = new Starfish("Star");
         zoo.addAnimal(3, starfish);
         // System.out.println(zoo.visit(path)); prints what I expect in correct order!
+        ArrayList<String> sampleNames = new ArrayList<String>();
+        sampleNames.add("Stripes");
+        sampleNames.add("Blubber");
+        sampleNames.add("Star");
+        assert (zoo.visit(path).equals(sampleNames)) : zoo.visit(path);
+        Iterator<String> nicknames = zoo.visitIterator(path);
+        assert (nicknames.next().equals("Stripes") && nicknames.next().equals("Blubber")
+                && nicknames.next().equals("Star") && !nicknames.hasNext());
+        path.add(0);
+        assert (zoo.visit(path) == null && zoo.visitIterator(path) == null);
+        assert (zoo.visitInto(new int[] { 0, 1, 3, 0 }, sampleNames) == false);
+        assert (sampleNames.size() == 3);
+        path.remove(path.size() - 1);
 
         // findUnreachableAreas
         ArrayList<Integer> sampleUnreachableAreas = new ArrayList<Integer>();
@@ -605,6 +1012,61 @@ public class Zoo implements IZoo {
         zoo.connectAreas(1, 0);
         assert (zoo.findUnreachableAreas().isEmpty());
 
+        // Edits between lookups are tracked. The aquarium already connects to 2.
+        zoo.addArea(aquarium2);
+        assert (zoo.findUnreachableAreas().isEmpty());
+        PicnicArea picnicArea4 = new PicnicArea();
+        zoo.addArea(picnicArea4);
+        assert (zoo.findUnreachableAreas().size() == 1);
+        zoo.connectAreas(1, 3);
+        assert (zoo.findUnreachableAreas().isEmpty());
+        zoo.removeArea(1);
+        sampleUnreachableAreas.clear();
+        sampleUnreachableAreas.add(2);
+        sampleUnreachableAreas.add(3);
+        assert (zoo.findUnreachableAreas().equals(sampleUnreachableAreas)) : (zoo.findUnreachableAreas());
+        zoo.addArea(aquarium);
+        assert (zoo.findUnreachableAreas().isEmpty()) : (zoo.findUnreachableAreas());
+        // Connections changed directly on an area are seen too.
+        zoo.getArea(0).removeAdjacentArea(1);
+        assert (zoo.findUnreachableAreas().contains(1)) : (zoo.findUnreachableAreas());
+        zoo.getArea(0).addAdjacentArea(1);
+        assert (zoo.findUnreachableAreas().isEmpty()) : (zoo.findUnreachableAreas());
+        // Edits to areas in another zoo, or in no zoo, leave the set current.
+        Zoo otherZoo = new Zoo();
+        otherZoo.connectAreas(0, otherZoo.addArea(new PicnicArea()));
+        new PicnicArea().addAdjacentArea(0);
+        assert (zoo.reachable.isCurrent(zoo.areas));
+        // An area taken out of the zoo no longer counts as one of its areas.
+        IArea removedArea = zoo.getArea(1);
+        zoo.removeArea(1);
+        zoo.findUnreachableAreas();
+        removedArea.addAdjacentArea(0);
+        assert (zoo.reachable.isCurrent(zoo.areas));
+        zoo.addArea(removedArea);
+
+        // A long one-way chain must not overflow the stack.
+        int previousAreaId = 0;
+        for (int i = 0; i < 100000; i++) {
+            int areaId = zoo.addArea(new PicnicArea());
+            zoo.connectAreas(previousAreaId, areaId);
+            previousAreaId = areaId;
+        }
+        assert (zoo.findUnreachableAreas().isEmpty());
+        zoo.areas.clear();
+
+        // findUnreachableAreasParallel
+        zoo.addArea(entrance);
+        Random random = new Random(1);
+        for (int i = 0; i < 50000; i++) {
+            zoo.addArea(new PicnicArea());
+        }
+        for (int i = 0; i < 150000; i++) {
+            zoo.connectAreas(random.nextInt(50001), random.nextInt(50001));
+        }
+        assert (zoo.findUnreachableAreasParallel(ForkJoinPool.commonPool()).equals(zoo.findUnreachableAreas()));
+        zoo.areas.clear();
+
         // setNrNotes and getNrNotes
         zoo.cashCount.setNrNotes_10pounds(1);
         assert (zoo.cashCount.getNrNotes_10pounds() == 1);
@@ -628,6 +1090,9 @@ public class Zoo implements IZoo {
                 : zoo.payEntranceFee(cashInserted).getNrNotes_5pounds();
         assert (zoo.cashCount.getNrNotes_10pounds() == 1);
         assert (zoo.calculateChange(501, cashInserted) == null);
+        int fivesBefore = zoo.cashCount.getNrNotes_5pounds();
+        assert (zoo.calculateChange(-10, new CashCount()) == null);
+        assert (zoo.cashCount.getNrNotes_5pounds() == fivesBefore);
         for (int i = 0; i < CASH_VALUES.length; i++) {
             zoo.setNrCash(cashSupply, CASH_VALUES[i], 0);
         }
@@ -656,5 +1121,431 @@ public class Zoo implements IZoo {
         
         assert (zoo.payEntranceFee(cashInserted).getNrCoins_2pounds() == 0): zoo.payEntranceFee(cashInserted).getNrCoins_2pounds();
         assert (zoo.payEntranceFee(cashInserted).getNrCoins_1pound() == 1): zoo.payEntranceFee(cashInserted).getNrCoins_1pound();
+
+        // setChangeStrategy: 60p from one 50p and three 20p coins.
+        for (int i = 0; i < CASH_VALUES.length; i++) {
+            zoo.setNrCash(cashSupply, CASH_VALUES[i], 0);
+            zoo.setNrCash(cashInserted, CASH_VALUES[i], 0);
+        }
+        cashSupply.setNrCoins_50p(1);
+        cashSupply.setNrCoins_20p(3);
+        zoo.setCashSupply(cashSupply);
+        zoo.setEntranceFee(0, 40);
+        cashInserted.setNrCoins_1pound(1);
+        assert (zoo.payEntranceFee(cashInserted) == cashInserted);
+        assert (zoo.cashCount.getNrCoins_50p() == 1 && zoo.cashCount.getNrCoins_20p() == 3);
+        zoo.setChangeStrategy(new OptimalChange());
+        assert (zoo.payEntranceFee(cashInserted).getNrCoins_20p() == 3);
+        assert (zoo.cashCount.getNrCoins_20p() == 0 && zoo.cashCount.getNrCoins_1pound() == 1);
+
+        // CASH_VALUES is only a copy: changing it does not change a price.
+        CASH_VALUES[0] = 1;
+        assert (CashCount.penceOf(0) == 2000);
+        CASH_VALUES[0] = 2000;
+
+        // Back to greedy, which takes the largest denominations first.
+        for (int i = 0; i < CASH_VALUES.length; i++) {
+            zoo.setNrCash(cashSupply, CASH_VALUES[i], 50);
+        }
+        zoo.setCashSupply(cashSupply);
+        zoo.setChangeStrategy(new GreedyChange());
+        zoo.payEntranceFee(cashInserted);
+        assert (zoo.payEntranceFee(cashInserted).getNrCoins_50p() == 1);
+
+        // Each sale's change is worked out from the stock at the time: 20p+10p+10p
+        // from one 20p, and 20p+20p once there are two.
+        CashCount stocked = new CashCount();
+        stocked.addAll(zoo.cashCount);
+        CashCount twenties = new CashCount();
+        twenties.setNrCoins_20p(1);
+        twenties.setNrCoins_10p(3);
+        zoo.setCashSupply(twenties);
+        CashCount planned = (CashCount) zoo.calculateChange(40, new CashCount());
+        assert (planned.getNrCoins_20p() == 1 && planned.getNrCoins_10p() == 2);
+        zoo.cashCount.setNrCoins_20p(2);
+        zoo.cashCount.setNrCoins_10p(3);
+        planned = (CashCount) zoo.calculateChange(40, new CashCount());
+        assert (planned.getNrCoins_20p() == 2 && planned.getNrCoins_10p() == 0);
+        zoo.setCashSupply(stocked);
+        zoo.setChangeStrategy(new OptimalChange());
+
+        // Paying into a reused change count leaves the machine alone on failure.
+        CashCount changeOut = new CashCount();
+        zoo.setEntranceFee(0, 40);
+        cashInserted.setNrCoins_1pound(1);
+        int fiftiesBefore = zoo.cashCount.getNrCoins_50p();
+        assert (zoo.payEntranceFee(cashInserted, changeOut));
+        assert (changeOut.getNrCoins_50p() == 1 && changeOut.totalPence() == 60);
+        assert (zoo.cashCount.getNrCoins_50p() == fiftiesBefore - 1);
+        assert (zoo.payEntranceFee(cashInserted, changeOut));
+        assert (changeOut.totalPence() == 60);
+        ICashCount supplyBefore = new CashCount();
+        zoo.setCashSupply(supplyBefore);
+        cashInserted.setNrCoins_1pound(0);
+        cashInserted.setNrNotes_5pounds(1);
+        assert (!zoo.payEntranceFee(cashInserted, changeOut));
+        assert (changeOut.totalPence() == 60);
+        assert (zoo.cashCount.totalPence() == 0);
+        cashInserted.setNrNotes_5pounds(0);
+
+        // The journal rebuilds the cash supply in a new zoo. The first journal is
+        // not closed, as if the machine had crashed, so every sale must already
+        // be on the disk.
+        try {
+            Path journalFile = Files.createTempFile("zoo", ".journal");
+            CashJournal tillJournal = new CashJournal(journalFile, 16, 1000);
+            try {
+                Zoo till = new Zoo();
+                till.setCashSupply(cashSupply);
+                till.setEntranceFee(0, 40);
+                till.setCashJournal(tillJournal);
+                cashInserted.setNrCoins_1pound(1);
+                till.payEntranceFee(cashInserted, changeOut);
+                till.payEntranceFee(cashInserted, changeOut);
+                assert (Files.size(journalFile) == 3L * CashJournal.RECORD_BYTES);
+                Zoo restarted = new Zoo();
+                CashJournal restartedJournal = new CashJournal(journalFile, 16, 1000);
+                restarted.setCashJournal(restartedJournal);
+                restartedJournal.close();
+                for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                    assert (restarted.cashCount.get(i) == till.cashCount.get(i));
+                }
+                assert (restarted.cashCount.getNrCoins_1pound() == 52);
+                cashInserted.setNrCoins_1pound(0);
+            } finally {
+                tillJournal.close();
+                Files.delete(journalFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // A saved zoo loads back with the same areas, animals and cash.
+        try {
+            Path snapshotFile = Files.createTempFile("zoo", ".snapshot");
+            try {
+                ZooSnapshot.save(zoo, snapshotFile);
+                Zoo loaded = ZooSnapshot.load(snapshotFile);
+                assert (loaded.getAreas().keySet().equals(zoo.getAreas().keySet()));
+                for (Integer areaId : zoo.getAreas().keySet()) {
+                    IArea original = zoo.getAreas().get(areaId);
+                    IArea copy = loaded.getArea(areaId);
+                    assert (copy.getClass() == original.getClass());
+                    assert (copy.getAdjacentAreas().equals(original.getAdjacentAreas()));
+                    if (original instanceof AnimalHabitat) {
+                        ArrayList<Animal> animals = ((AnimalHabitat) original).getAnimals();
+                        ArrayList<Animal> copies = ((AnimalHabitat) copy).getAnimals();
+                        assert (copies.size() == animals.size());
+                        for (int i = 0; i < animals.size(); i++) {
+                            assert (copies.get(i).getClass() == animals.get(i).getClass());
+                            assert (copies.get(i).getNickname().equals(animals.get(i).getNickname()));
+                        }
+                        assert (((AnimalHabitat) copy).getCapacity() == ((AnimalHabitat) original).getCapacity());
+                    }
+                }
+                for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                    assert (loaded.cashCount.get(i) == zoo.cashCount.get(i));
+                }
+                assert (loaded.getEntranceFeePence() == zoo.getEntranceFeePence());
+                assert (loaded.findUnreachableAreas().equals(zoo.findUnreachableAreas()));
+                assert (loaded.addArea(new PicnicArea()) == zoo.addArea(new PicnicArea()));
+
+                // A cut short or damaged file is rejected with an IOException.
+                byte[] saved = Files.readAllBytes(snapshotFile);
+                Random damage = new Random(23);
+                for (int n = 0; n < 300; n++) {
+                    byte[] damaged = Arrays.copyOf(saved, n < 100 ? damage.nextInt(saved.length) : saved.length);
+                    if (n >= 100) {
+                        damaged[8 + damage.nextInt(saved.length - 8)] = (byte) damage.nextInt();
+                    }
+                    Files.write(snapshotFile, damaged);
+                    try {
+                        ZooSnapshot.load(snapshotFile);
+                        assert (n >= 100);
+                    } catch (IOException e) {
+                        // Expected.
+                    }
+                }
+
+                // Only areas and animals are loaded, and only named public classes
+                // are saved.
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(ZooSnapshot.MAGIC);
+                out.writeInt(ZooSnapshot.VERSION);
+                for (int i = 0; i <= CashCount.DENOMINATION_COUNT; i++) {
+                    out.writeInt(0);
+                }
+                out.writeInt(1);
+                out.writeInt(16);
+                out.writeBytes("java.lang.Thread");
+                out.writeInt(0);
+                out.close();
+                Files.write(snapshotFile, bytes.toByteArray());
+                try {
+                    ZooSnapshot.load(snapshotFile);
+                    assert (false);
+                } catch (IOException e) {
+                    assert (e.getMessage().contains("not an area or an animal"));
+                }
+                int anonymousId = zoo.addArea(new Enclosure(2) {
+                });
+                try {
+                    ZooSnapshot.save(zoo, snapshotFile);
+                    assert (false);
+                } catch (IllegalArgumentException e) {
+                    // Expected.
+                }
+                assert (Files.size(snapshotFile) == bytes.size());
+                zoo.removeArea(anonymousId);
+            } finally {
+                Files.delete(snapshotFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // Layout files are imported in bulk, with duplicate edges dropped.
+        try {
+            Path layoutFile = Files.createTempFile("zoo", ".layout");
+            try {
+                Files.write(layoutFile, Arrays.asList("# A small zoo", "area 0 Entrance", "area 1 Enclosure 4",
+                        "area 2 PicnicArea", "\tarea 3   Aquarium 2\r", "area 7 Cage 1", "edge 0 1", "edge 1 2",
+                        "edge 0 1", "edge 2 3", "edge 3 0", "", "edge 7 0"));
+                Zoo imported = new Zoo();
+                assert (imported.importLayout(layoutFile) == 5);
+                assert (imported.getArea(1) instanceof Enclosure);
+                assert (((AnimalHabitat) imported.getArea(3)).getCapacity() == 2);
+                assert (imported.getArea(1).getAdjacentAreas().equals(Arrays.asList(2)));
+                ArrayList<Integer> importedPath = new ArrayList<Integer>(Arrays.asList(0, 1, 2, 3, 0));
+                assert (imported.isPathAllowed(importedPath));
+                assert (imported.findUnreachableAreas().equals(Arrays.asList(7)));
+                assert (imported.addArea(new PicnicArea()) == 4);
+
+                // The same layout written straight to a mapped zoo.
+                Path mappedFile = Files.createTempFile("zoo", ".mapped");
+                try {
+                    assert (LayoutImporter.writeMapped(layoutFile, mappedFile) == 5);
+                    MappedZoo mapped = new MappedZoo(mappedFile);
+                    assert (mapped.idBound() == 8);
+                    assert (mapped.getArea(1).getAdjacentAreas().equals(Arrays.asList(2)));
+                    assert (((MappedZoo.AreaView) mapped.getArea(3)).isAnimalHabitat());
+                    assert (mapped.getArea(4) == null);
+                    assert (mapped.isPathAllowed(importedPath));
+                    assert (mapped.findUnreachableAreas().equals(Arrays.asList(7)));
+                    Files.write(layoutFile, Arrays.asList("edge 2 0", "area 2 PicnicArea", "edge 0 2"));
+                    assert (LayoutImporter.writeMapped(layoutFile, mappedFile) == 2);
+                    mapped = new MappedZoo(mappedFile);
+                    assert (mapped.hasConnection(0, 2) && mapped.hasConnection(2, 0) && !mapped.hasArea(1));
+                } finally {
+                    Files.delete(mappedFile);
+                }
+
+                // Edges to areas already in the zoo are merged with their connections.
+                Files.write(layoutFile, Arrays.asList("edge 7 3", "edge 0 7", "edge 0 1"));
+                assert (imported.importLayout(layoutFile) == 3);
+                assert (imported.getArea(0).getAdjacentAreas().equals(Arrays.asList(1, 7)));
+                assert (imported.findUnreachableAreas().equals(Arrays.asList(4)));
+
+                // A mistake anywhere leaves the zoo as it was.
+                Files.write(layoutFile, Arrays.asList("area 5 PicnicArea", "edge 5 6"));
+                try {
+                    imported.importLayout(layoutFile);
+                    assert false;
+                } catch (IOException e) {
+                }
+                Files.write(layoutFile, Arrays.asList("area 5 PicnicArea", "edge 5 x"));
+                try {
+                    imported.importLayout(layoutFile);
+                    assert false;
+                } catch (IOException e) {
+                    assert (e.getMessage().startsWith("Line 2")) : e.getMessage();
+                }
+                assert (imported.getArea(5) == null);
+
+                // An areaId far past the rest is rejected before anything is
+                // made for it.
+                Files.write(layoutFile, Arrays.asList("# far away", "area 2000000000 PicnicArea"));
+                try {
+                    imported.importLayout(layoutFile);
+                    assert false;
+                } catch (IOException e) {
+                    assert (e.getMessage().startsWith("Line 2")) : e.getMessage();
+                }
+                try {
+                    LayoutImporter.writeMapped(layoutFile, layoutFile.resolveSibling(layoutFile.getFileName() + ".m"));
+                    assert false;
+                } catch (IOException e) {
+                    assert (e.getMessage().startsWith("Line 2")) : e.getMessage();
+                }
+                assert (imported.getArea(2000000000) == null);
+                // How far is relative to the size of the file, so one short line
+                // can not ask for an array of millions.
+                Files.write(layoutFile, Arrays.asList("area 100000 PicnicArea"));
+                try {
+                    imported.importLayout(layoutFile);
+                    assert false;
+                } catch (IOException e) {
+                    assert (e.getMessage().startsWith("Line 1")) : e.getMessage();
+                }
+
+                // The entrance may be listed, but only once.
+                Files.write(layoutFile, Arrays.asList("area 0 Entrance", "area 0 Entrance"));
+                try {
+                    LayoutImporter.writeMapped(layoutFile, layoutFile.resolveSibling(layoutFile.getFileName() + ".m"));
+                    assert false;
+                } catch (IOException e) {
+                    assert (e.getMessage().equals("Area 0 already exists.")) : e.getMessage();
+                }
+                try {
+                    imported.importLayout(layoutFile);
+                    assert false;
+                } catch (IOException e) {
+                }
+            } finally {
+                Files.delete(layoutFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // connectAreas checks the areas exist before looking at them.
+        try {
+            zoo.connectAreas(-5, 0);
+            assert false;
+        } catch (IllegalArgumentException e) {
+        }
+
+        // Indexed cash access.
+        CashCount indexed = new CashCount();
+        indexed.set(CashCount.FIVE_POUND_NOTE, 2);
+        indexed.setNrCoins_20p(3);
+        assert (indexed.get(CashCount.TWENTY_P_COIN) == 3);
+        assert (zoo.getNrCash(indexed, 500) == 2);
+        assert (indexed.totalPence() == 1060);
+        indexed.addAll(indexed);
+        assert (indexed.totalPence() == 2120);
+        assert (CashCount.indexOf(50) == CashCount.FIFTY_P_COIN && CashCount.indexOf(5) == -1);
+        try {
+            zoo.setNrCash(indexed, 5, 1);
+            assert false;
+        } catch (IllegalArgumentException e) {
+        }
+
+        // Fused visit against checking the whole path first and then walking it
+        // again, on a long path.
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            long[] visitTimes = timeVisit(100000, 200);
+            System.out.printf("visit of 100000 hops: fused %d us, two passes %d us; bad last hop: fused %d us, "
+                    + "two passes %d us%n", visitTimes[0] / 1000, visitTimes[1] / 1000, visitTimes[2] / 1000,
+                    visitTimes[3] / 1000);
+        }
+
+        // Allocation per sale, with a change count reused by the caller and with
+        // a new one from the IZoo payEntranceFee, and for refused sales.
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            long[] reused = timeSales(true, true, 1000000);
+            long[] fresh = timeSales(false, true, 1000000);
+            long[] refused = timeSales(true, false, 1000000);
+            System.out.printf("1000000 sales: reused change %d ms %d KB, new change %d ms %d KB, "
+                    + "refused %d ms %d KB%n", reused[0] / 1000000, reused[1] / 1024, fresh[0] / 1000000,
+                    fresh[1] / 1024, refused[0] / 1000000, refused[1] / 1024);
+        }
+    }
+
+    /**
+     * Sells £3.70 tickets for a £5 note and measures the time and allocation.
+     *
+     * @param reuse   true to pass the same change count to every sale, false to
+     *                use the payEntranceFee that returns a new one.
+     * @param stocked true to stock the machine so it never runs out of change,
+     *                false to leave it empty so every sale is refused.
+     * @param sales   the number of sales.
+     * @return the time taken in nanoseconds and the bytes allocated.
+     */
+    private static long[] timeSales(boolean reuse, boolean stocked, int sales) {
+        Zoo zoo = new Zoo();
+        zoo.setEntranceFee(3, 70);
+        ICashCount supply = new CashCount();
+        for (int i = 0; stocked && i < CashCount.DENOMINATION_COUNT; i++) {
+            CashCount.setCountOf(supply, i, sales);
+        }
+        zoo.setCashSupply(supply);
+        ICashCount fiver = new CashCount();
+        fiver.setNrNotes_5pounds(1);
+        ICashCount changeOut = new CashCount();
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        long bytes = mx.getCurrentThreadAllocatedBytes();
+        long time = System.nanoTime();
+        for (int n = 0; n < sales; n++) {
+            if (reuse) {
+                zoo.payEntranceFee(fiver, changeOut);
+            } else {
+                zoo.payEntranceFee(fiver);
+            }
+        }
+        time = System.nanoTime() - time;
+        bytes = mx.getCurrentThreadAllocatedBytes() - bytes;
+        return new long[] { time, bytes };
+    }
+
+    /**
+     * Times visitInto against isPathAllowed followed by a second walk to collect
+     * the nicknames. The path goes round a ring of 1000 enclosures with two
+     * animals each, once as given and once with its last hop broken.
+     *
+     * @param hops   the length of the path.
+     * @param visits the number of visits timed for each way.
+     * @return the nanoseconds per visit for fused and two-pass on the good path,
+     *         then on the broken one.
+     */
+    private static long[] timeVisit(int hops, int visits) {
+        Zoo zoo = new Zoo();
+        int[] ring = new int[1000];
+        for (int i = 0; i < ring.length; i++) {
+            Enclosure enclosure = new Enclosure(2);
+            ring[i] = zoo.addArea(enclosure);
+            zoo.addAnimal(ring[i], new Zebra("Zebra" + i));
+            zoo.addAnimal(ring[i], new Gazelle("Gazelle" + i));
+        }
+        zoo.connectAreas(0, ring[0]);
+        for (int i = 0; i < ring.length; i++) {
+            zoo.connectAreas(ring[i], ring[(i + 1) % ring.length]);
+        }
+        int[] path = new int[hops + 1];
+        for (int i = 1; i < path.length; i++) {
+            path[i] = ring[(i - 1) % ring.length];
+        }
+        int[] broken = path.clone();
+        broken[broken.length - 1] = 0;
+        ArrayList<String> names = new ArrayList<String>(2 * hops);
+        long[] times = new long[4];
+        int[][] paths = { path, broken };
+        for (int p = 0; p < paths.length; p++) {
+            long time = System.nanoTime();
+            for (int v = 0; v < visits; v++) {
+                names.clear();
+                assert (zoo.visitInto(paths[p], names) == (p == 0));
+            }
+            times[2 * p] = (System.nanoTime() - time) / visits;
+            time = System.nanoTime();
+            for (int v = 0; v < visits; v++) {
+                names.clear();
+                if (PathValidator.isPathAllowed(zoo.areas, paths[p], 0, paths[p].length)) {
+                    for (int i = 0; i < paths[p].length; i++) {
+                        IArea area = zoo.areas.getArea(paths[p][i]);
+                        if (area instanceof AnimalHabitat) {
+                            ArrayList<Animal> animals = ((AnimalHabitat) area).getAnimals();
+                            for (int j = 0; j < animals.size(); j++) {
+                                names.add(animals.get(j).getNickname());
+                            }
+                        }
+                    }
+                }
+            }
+            times[2 * p + 1] = (System.nanoTime() - time) / visits;
+        }
+        return times;
     }
 }
\ No newline at end of file
@@ -0,0 +1,383 @@
+package zoo;
+
+import animals.Animal;
+import areas.AnimalHabitat;
+import areas.Area;
+import areas.IArea;
+import dataStructures.AreaRegistry;
+import dataStructures.CashCount;
+import dataStructures.ICashCount;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a whole zoo to a binary file and loads it back, so a large layout does
+ * not have to be built again with addArea, connectAreas and addAnimal, and can
+ * be copied to another machine.
+ *
+ * The file is, in order: a magic number and format version; the cash in the
+ * ticket machine and the entrance fee; a table of the area and animal class
+ * names used; then each area as its id, class, capacity, adjacent areaIds and
+ * animals. Numbers are big-endian ints and strings are a length followed by
+ * UTF-8 bytes. Saving is one pass through a buffered stream. Loading maps the
+ * file into memory and puts the areas straight into the zoo, without the checks
+ * addArea, connectAreas and addAnimal make, so the file must come from save.
+ * A file that is cut short or does not follow the format is still rejected with
+ * an IOException, and a class named in it is only loaded if it is an area or an
+ * animal, and only initialised once it has been checked.
+ */
+public final class ZooSnapshot {
+
+    /**
+     * The first four bytes of every snapshot, "ZOOS".
+     */
+    public static final int MAGIC = 0x5A4F4F53;
+
+    /**
+     * The version of the format written by save.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The capacity written for an area that is not an animal habitat.
+     */
+    private static final int NO_CAPACITY = -1;
+
+    private ZooSnapshot() {
+    }
+
+    /**
+     * Saves a zoo. Every area and animal must be of a class load can create: a
+     * public top-level or static nested class with the public constructor load
+     * uses, so not an anonymous class such as new Enclosure(2) {}.
+     *
+     * @param zoo  the zoo to save.
+     * @param file the file to save it to. Replaced if it exists.
+     * @throws IOException              the file can not be written.
+     * @throws IllegalArgumentException an area or animal is of a class load can
+     *                                  not create. Nothing is written.
+     */
+    public static void save(Zoo zoo, Path file) throws IOException {
+        Map<Integer, IArea> areas = zoo.getAreas();
+        // Number each class the first time it is seen.
+        HashMap<Class<?>, Integer> classIndexes = new HashMap<Class<?>, Integer>();
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (IArea area : areas.values()) {
+            indexClass(area.getClass(), classIndexes, classes);
+            if (area instanceof AnimalHabitat) {
+                for (Animal animal : ((AnimalHabitat) area).getAnimals()) {
+                    indexClass(animal.getClass(), classIndexes, classes);
+                }
+            }
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            ICashCount cash = zoo.getCashSupply();
+            for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+                out.writeInt(CashCount.countOf(cash, i));
+            }
+            out.writeInt(zoo.getEntranceFeePence());
+            out.writeInt(classes.size());
+            for (Class<?> c : classes) {
+                writeString(out, c.getName());
+            }
+            out.writeInt(areas.size());
+            for (Map.Entry<Integer, IArea> e : areas.entrySet()) {
+                IArea area = e.getValue();
+                out.writeInt(e.getKey());
+                out.writeInt(classIndexes.get(area.getClass()));
+                int[] adjacent = Area.adjacentAreaIdsOf(area);
+                if (area instanceof AnimalHabitat) {
+                    AnimalHabitat habitat = (AnimalHabitat) area;
+                    out.writeInt(habitat.getCapacity());
+                    writeAdjacent(out, adjacent);
+                    ArrayList<Animal> animals = habitat.getAnimals();
+                    out.writeInt(animals.size());
+                    for (Animal animal : animals) {
+                        out.writeInt(classIndexes.get(animal.getClass()));
+                        writeString(out, animal.getNickname());
+                    }
+                } else {
+                    out.writeInt(NO_CAPACITY);
+                    writeAdjacent(out, adjacent);
+                    out.writeInt(0);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads a zoo saved by save.
+     *
+     * @param file the file to load.
+     * @return a new zoo with the saved areas, animals, cash and entrance fee.
+     * @throws IOException the file can not be read, is not a snapshot, or names a
+     *                     class that can not be created.
+     */
+    public static Zoo load(Path file) throws IOException {
+        ByteBuffer in;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            channel.close();
+        }
+        if (in.remaining() < 8 || in.getInt() != MAGIC) {
+            throw new IOException(file + " is not a zoo snapshot.");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Zoo snapshot version " + version + " is not supported.");
+        }
+        try {
+            return read(in);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(file + " is cut short.", e);
+        }
+    }
+
+    /**
+     * Reads everything after the magic number and version.
+     *
+     * @param in the file, positioned after the version.
+     * @return a new zoo with the saved areas, animals, cash and entrance fee.
+     * @throws IOException              the file does not follow the format, or
+     *                                  names a class that can not be created.
+     * @throws BufferUnderflowException the file is cut short.
+     */
+    private static Zoo read(ByteBuffer in) throws IOException {
+        Zoo zoo = new Zoo();
+        CashCount cash = new CashCount();
+        for (int i = 0; i < CashCount.DENOMINATION_COUNT; i++) {
+            cash.set(i, in.getInt());
+        }
+        zoo.setCashSupply(cash);
+        zoo.setEntranceFee(0, in.getInt());
+        // Each class name takes at least its length.
+        Constructor<?>[] constructors = new Constructor<?>[readCount(in, 4)];
+        for (int i = 0; i < constructors.length; i++) {
+            constructors[i] = constructorFor(readString(in));
+        }
+        Map<Integer, IArea> areas = zoo.getAreas();
+        areas.clear();
+        // Each area takes at least its id, class, capacity and two counts.
+        int areaCount = readCount(in, 20);
+        for (int n = 0; n < areaCount; n++) {
+            int areaId = in.getInt();
+            if (areaId < 0 || areaId >= AreaRegistry.spareIdLimit(1, in.capacity()) || areas.containsKey(areaId)) {
+                throw new IOException("Area " + areaId + " is not a valid new areaId.");
+            }
+            Constructor<?> areaConstructor = constructors[readIndex(in, constructors.length)];
+            if (!IArea.class.isAssignableFrom(areaConstructor.getDeclaringClass())) {
+                throw new IOException(areaConstructor.getDeclaringClass().getName() + " is not an area.");
+            }
+            int capacity = in.getInt();
+            IArea area = (IArea) create(areaConstructor, capacity == NO_CAPACITY ? null : capacity);
+            int[] adjacent = new int[readCount(in, 4)];
+            for (int i = 0; i < adjacent.length; i++) {
+                adjacent[i] = in.getInt();
+                if (i > 0 && adjacent[i] <= adjacent[i - 1]) {
+                    throw new IOException("The adjacent areaIds of area " + areaId + " are not in order.");
+                }
+            }
+            if (area instanceof Area) {
+                ((Area) area).setAdjacentAreaIds(adjacent);
+            } else {
+                for (int id : adjacent) {
+                    area.addAdjacentArea(id);
+                }
+            }
+            // Each animal takes at least its class and the length of its name.
+            int animalCount = readCount(in, 8);
+            if (area instanceof AnimalHabitat) {
+                ArrayList<Animal> animals = new ArrayList<Animal>(Math.max(animalCount, 10));
+                for (int i = 0; i < animalCount; i++) {
+                    Constructor<?> animalConstructor = constructors[readIndex(in, constructors.length)];
+                    if (!Animal.class.isAssignableFrom(animalConstructor.getDeclaringClass())) {
+                        throw new IOException(animalConstructor.getDeclaringClass().getName() + " is not an animal.");
+                    }
+                    animals.add((Animal) create(animalConstructor, readString(in)));
+                }
+                ((AnimalHabitat) area).setAnimals(animals);
+            } else if (animalCount != 0) {
+                throw new IOException("Area " + areaId + " is not an animal habitat but has animals.");
+            }
+            areas.put(areaId, area);
+        }
+        return zoo;
+    }
+
+    /**
+     * Gives a class the next number if it does not have one.
+     *
+     * @param c            the class.
+     * @param classIndexes the number of each class seen so far.
+     * @param classes      the classes seen so far, in order.
+     * @throws IllegalArgumentException load could not create an object of the
+     *                                  class.
+     */
+    private static void indexClass(Class<?> c, HashMap<Class<?>, Integer> classIndexes, List<Class<?>> classes) {
+        if (!classIndexes.containsKey(c)) {
+            try {
+                constructorFor(c);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            classIndexes.put(c, classes.size());
+            classes.add(c);
+        }
+    }
+
+    /**
+     * @param out      the stream to write to.
+     * @param adjacent the adjacent areaIds.
+     * @throws IOException the stream can not be written.
+     */
+    private static void writeAdjacent(DataOutputStream out, int[] adjacent) throws IOException {
+        out.writeInt(adjacent.length);
+        for (int id : adjacent) {
+            out.writeInt(id);
+        }
+    }
+
+    /**
+     * @param out the stream to write to.
+     * @param s   the string to write.
+     * @throws IOException the stream can not be written.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param in the buffer to read from.
+     * @return the string written by writeString.
+     * @throws IOException the length is negative or runs past the end.
+     */
+    private static String readString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[readCount(in, 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a count and checks that many items could fit in the rest of the
+     * file, so a corrupt count is caught before anything is allocated for it.
+     *
+     * @param in        the buffer to read from.
+     * @param bytesEach the fewest bytes each item takes.
+     * @return the count.
+     * @throws IOException the count is negative or too big for the file.
+     */
+    private static int readCount(ByteBuffer in, int bytesEach) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || (long) count * bytesEach > in.remaining()) {
+            throw new IOException("A count of " + count + " does not fit in the rest of the file.");
+        }
+        return count;
+    }
+
+    /**
+     * @param in    the buffer to read from.
+     * @param bound the number of entries in the table the index is into.
+     * @return the index.
+     * @throws IOException the index is not between 0 and bound - 1.
+     */
+    private static int readIndex(ByteBuffer in, int bound) throws IOException {
+        int index = in.getInt();
+        if (index < 0 || index >= bound) {
+            throw new IOException("Class index " + index + " is not in the class table.");
+        }
+        return index;
+    }
+
+    /**
+     * Finds a saved class without initialising it, so a class that is not an
+     * area or an animal never has its static blocks run.
+     *
+     * @param className the name of the class.
+     * @return its constructor.
+     * @throws IOException the class does not exist or can not be created.
+     */
+    private static Constructor<?> constructorFor(String className) throws IOException {
+        try {
+            return constructorFor(Class.forName(className, false, ZooSnapshot.class.getClassLoader()));
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new IOException("Can not create a " + className + ".", e);
+        }
+    }
+
+    /**
+     * Finds how to create an area or animal of a class. Areas are created with no
+     * arguments, or with their capacity if they are animal habitats, and animals
+     * with their nickname. Only public classes that are not local, anonymous or
+     * inner classes can be created this way.
+     *
+     * @param c the class.
+     * @return its constructor.
+     * @throws IOException the class is not an area or an animal, or can not be
+     *                     created.
+     */
+    private static Constructor<?> constructorFor(Class<?> c) throws IOException {
+        if (!IArea.class.isAssignableFrom(c) && !Animal.class.isAssignableFrom(c)) {
+            throw new IOException(c.getName() + " is not an area or an animal.");
+        }
+        int modifiers = c.getModifiers();
+        if (!Modifier.isPublic(modifiers) || Modifier.isAbstract(modifiers) || c.isAnonymousClass()
+                || c.isLocalClass() || (c.isMemberClass() && !Modifier.isStatic(modifiers))) {
+            throw new IOException("Can not create a " + c.getName() + " as it is not a public named class.");
+        }
+        try {
+            if (AnimalHabitat.class.isAssignableFrom(c)) {
+                return c.getConstructor(int.class);
+            }
+            if (IArea.class.isAssignableFrom(c)) {
+                return c.getConstructor();
+            }
+            return c.getConstructor(String.class);
+        } catch (NoSuchMethodException e) {
+            throw new IOException("Can not create a " + c.getName() + ".", e);
+        }
+    }
+
+    /**
+     * @param constructor the constructor from constructorFor.
+     * @param argument    its argument, or null if it has none.
+     * @return the new object.
+     * @throws IOException the constructor failed.
+     */
+    private static Object create(Constructor<?> constructor, Object argument) throws IOException {
+        try {
+            if (constructor.getParameterCount() == 0) {
+                return constructor.newInstance();
+            }
+            return constructor.newInstance(argument);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException
+                | IllegalArgumentException | LinkageError e) {
+            throw new IOException("Can not create a " + constructor.getDeclaringClass().getName() + ".", e);
+        }
+    }
+}